@@ -14,6 +14,7 @@ import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.StateMachinePool;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
@@ -104,6 +105,22 @@ public abstract class StateMachineGamer extends Gamer
 	{
 		return stateMachine;
 	}
+
+	/**
+	 * Returns a pool of copies of the state machine, from which worker threads
+	 * can check out machines of their own. The pool is created on first use,
+	 * and replaced whenever the state machine is.
+	 * 
+	 * @return a pool of copies of the state machine
+	 */
+	public final synchronized StateMachinePool getStateMachinePool()
+	{
+		if (stateMachinePool == null || stateMachinePool.getPrototype() != stateMachine)
+		{
+			stateMachinePool = new StateMachinePool(stateMachine);
+		}
+		return stateMachinePool;
+	}
 	
     /**
      * Cleans up the role, currentState and stateMachine. This should only be
@@ -115,6 +132,7 @@ public abstract class StateMachineGamer extends Gamer
         role = null;
         currentState = null;        
         stateMachine = null;
+        stateMachinePool = null;
         setMatch(null);
         setRoleName(null);
     }
@@ -210,6 +228,7 @@ public abstract class StateMachineGamer extends Gamer
 				currentState = stateMachine.getNextState(currentState, moves);
 				getMatch().appendState(currentState.getContents());
 			}
+			stateMachine.updateRoot(currentState);
 
 			return stateMachineSelectMove(timeout).getContents();
 		}
@@ -264,4 +283,5 @@ public abstract class StateMachineGamer extends Gamer
     private Role role;
     private MachineState currentState;
     private StateMachine stateMachine;          
+    private StateMachinePool stateMachinePool;
 }
\ No newline at end of file
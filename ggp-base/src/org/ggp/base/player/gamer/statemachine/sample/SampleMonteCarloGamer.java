@@ -25,6 +25,9 @@ import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
  */
 public final class SampleMonteCarloGamer extends SampleGamer
 {
+	/** The most depth charges run from one candidate move at once */
+	private static final int MAX_CHARGES_PER_BATCH = 64;
+
 	/**
 	 * Employs a simple sample "Monte Carlo" algorithm.
 	 */
@@ -43,13 +46,22 @@ public final class SampleMonteCarloGamer extends SampleGamer
     		
     		// Perform depth charges for each candidate move, and keep track
     		// of the total score and total attempts accumulated for each move.
+    		// The charges go out in batches, which machines like the compiled
+    		// propnet run side by side; a batch doubles as long as a round of
+    		// the doubled batches still fits in the time left.
+    		int charges = 1;
     		for (int i = 0; true; i = (i+1) % moves.size()) {
-    		    if (System.currentTimeMillis() > finishBy)
+    		    long batchStart = System.currentTimeMillis();
+    		    if (batchStart > finishBy)
     		        break;
     		    
-    		    int theScore = performDepthChargeFromMove(theMachine.getInitialState(), moves.get(i));
+    		    int theScore = performDepthChargesFromMove(theMachine.getInitialState(), moves.get(i), charges);
     		    moveTotalPoints[i] += theScore;
-    		    moveTotalAttempts[i] += 1;
+    		    moveTotalAttempts[i] += charges;
+    		    
+    		    long batchTime = System.currentTimeMillis() - batchStart;
+    		    if (charges < MAX_CHARGES_PER_BATCH && 2 * batchTime * moves.size() < finishBy - System.currentTimeMillis())
+    		        charges *= 2;
     		}
     
     		// Compute the expected score for each move.
@@ -76,12 +88,19 @@ public final class SampleMonteCarloGamer extends SampleGamer
 		return selection;
 	}
 	
-	private int[] depth = new int[1];
-	int performDepthChargeFromMove(MachineState theState, Move myMove) {	    
+	// Returns the total score of the charges.
+	int performDepthChargesFromMove(MachineState theState, Move myMove, int charges) {	    
 	    StateMachine theMachine = getStateMachine();
 	    try {
-            MachineState finalState = theMachine.performDepthCharge(theMachine.getRandomNextState(theState, getRole(), myMove), depth);
-            return theMachine.getGoal(finalState, getRole());
+	        int[] depths = new int[charges];
+	        int[][] goals = new int[charges][theMachine.getRoles().size()];
+            theMachine.performDepthCharges(theMachine.getRandomNextState(theState, getRole(), myMove), depths, goals);
+            int role = theMachine.getRoleIndices().get(getRole());
+            int total = 0;
+            for (int[] theGoals : goals) {
+                total += theGoals[role];
+            }
+            return total;
         } catch (Exception e) {
             e.printStackTrace();
             return 0;
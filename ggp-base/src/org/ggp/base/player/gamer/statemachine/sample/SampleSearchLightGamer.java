@@ -10,6 +10,7 @@ import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
 import org.ggp.base.player.gamer.exception.GameAnalysisException;
 import org.ggp.base.player.gamer.statemachine.StateMachineGamer;
 import org.ggp.base.util.game.Game;
+import org.ggp.base.util.statemachine.JointMoveIterator;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.StateMachine;
@@ -138,8 +139,9 @@ public final class SampleSearchLightGamer extends StateMachineGamer
 		    // to make us lose, and so if they are offered any move that will make us lose
 		    // they will take it.
 		    boolean forcedLoss = false;		    		    
-		    for(List<Move> jointMove : theMachine.getLegalJointMoves(nextState)) {
-		        MachineState nextNextState = theMachine.getNextState(nextState, jointMove);
+		    JointMoveIterator jointMoves = theMachine.getLegalJointMoveIterator(nextState);
+		    while(jointMoves.hasNext()) {
+		        MachineState nextNextState = theMachine.getNextState(nextState, jointMoves.next());
 		        if(theMachine.isTerminal(nextNextState)) {
 		            if(theMachine.getGoal(nextNextState, getRole()) == 0) {
 		                forcedLoss = true;
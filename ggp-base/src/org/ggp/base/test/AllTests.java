@@ -7,6 +7,7 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({GdlCleanerTests.class,
                      NoTabsInRulesheetsTest.class,
                      ProverStateMachineTests.class,
+                     PropNetStateMachineTests.class,
                      StaticValidationTests.class,
                      GameParsingTests.class
                      })
@@ -0,0 +1,535 @@
+package org.ggp.base.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.compiler.CompiledPropNetCache;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
+import org.ggp.base.util.statemachine.JointMoveIterator;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.StateMachinePool;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.cache.ConcurrentCachedStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.FactorStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.GeneratedPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.SamplePropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class PropNetStateMachineTests extends Assert {
+
+    @Test
+    public void testPropNetOnTicTacToe() throws Exception {
+        assertConsistentWithProver("ticTacToe");
+    }
+
+    @Test
+    public void testPropNetOnConnectFour() throws Exception {
+        assertConsistentWithProver("connectFour");
+    }
+
+    @Test
+    public void testPropNetOnTestCases() throws Exception {
+        // Cases the OptimizingPropNetFactory can't build (3b, 3e, 3f, 5a, 5b)
+        // are left out, since they would fail before reaching the machine.
+        for (String game : new String[] {"test_case_1a", "test_case_1b", "test_case_2a", "test_case_2b", "test_case_2c",
+                                         "test_case_3a", "test_case_3c", "test_case_3d", "test_case_4a", "test_case_5c",
+                                         "test_case_6a", "test_case_6b"}) {
+            assertConsistentWithProver(game);
+        }
+    }
+
+    @Test
+    public void testBatchDepthChargesOnTicTacToe() throws Exception {
+        StateMachine machine = new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.FULL, null);
+        machine.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+        // More charges than fit in one word, so a partial batch is run too.
+        int[] depths = new int[100];
+        int[][] goals = new int[100][machine.getRoles().size()];
+        machine.performDepthCharges(machine.getInitialState(), depths, goals);
+        for (int i = 0; i < depths.length; i++) {
+            assertTrue(depths[i] >= 5 && depths[i] <= 9);
+            assertEquals(100, goals[i][0] + goals[i][1]);
+        }
+    }
+
+    @Test
+    public void testRolloutsOnTicTacToe() throws Exception {
+        for (CompiledPropNetStateMachine.Propagation propagation : CompiledPropNetStateMachine.Propagation.values()) {
+            StateMachine machine = new CompiledPropNetStateMachine(propagation, null);
+            machine.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+            Random random = new Random(0);
+            int[] goals = new int[machine.getRoles().size()];
+            for (int i = 0; i < 100; i++) {
+                int depth = machine.performDepthCharge(machine.getInitialState(), random, goals);
+                assertTrue(depth >= 5 && depth <= 9);
+                assertEquals(100, goals[0] + goals[1]);
+            }
+            // The rollouts leave the machine's buffers elsewhere, so the next
+            // query has to reload its state.
+            assertFalse(machine.isTerminal(machine.getInitialState()));
+            assertEquals(9, machine.getLegalMoves(machine.getInitialState(), machine.getRoles().get(0)).size());
+        }
+    }
+
+    @Test
+    public void testSharedMachineAcrossThreads() throws Exception {
+        final List<Gdl> description = new TestGameRepository().getGame("connectFour").getRules();
+        final StateMachine shared = new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.DIFFERENTIAL, null);
+        shared.initialize(description);
+        // Each thread walks random games on the shared machine and checks
+        // every step against a machine of its own.
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        StateMachine own = new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.FULL, null);
+                        own.initialize(description);
+                        for (int game = 0; game < 50; game++) {
+                            MachineState state = shared.getInitialState();
+                            while (!shared.isTerminal(state)) {
+                                assertFalse(own.isTerminal(state));
+                                List<Move> jointMove = shared.getRandomJointMove(state);
+                                for (Role role : shared.getRoles()) {
+                                    assertEquals(new HashSet<Move>(own.getLegalMoves(state, role)), new HashSet<Move>(shared.getLegalMoves(state, role)));
+                                }
+                                MachineState next = shared.getNextState(state, jointMove);
+                                assertEquals(own.getNextState(state, jointMove), next);
+                                state = next;
+                            }
+                            assertTrue(own.isTerminal(state));
+                            assertEquals(own.getGoals(state), shared.getGoals(state));
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(failures.toString(), 0, failures.size());
+    }
+
+    @Test
+    public void testPooledCopiesAcrossThreads() throws Exception {
+        final List<Gdl> description = new TestGameRepository().getGame("ticTacToe").getRules();
+        final StateMachine reference = new ProverStateMachine();
+        reference.initialize(description);
+        StateMachine[] prototypes = new StateMachine[] {
+                new ProverStateMachine(),
+                new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.DIFFERENTIAL, null),
+                new GeneratedPropNetStateMachine(60000, null),
+                // Small enough that the shared caches keep evicting.
+                new ConcurrentCachedStateMachine(new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.FULL, null), 256),
+                // Provers number moves as they see them, on whichever copy.
+                new ConcurrentCachedStateMachine(new ProverStateMachine(), 256)
+        };
+        for (StateMachine prototype : prototypes) {
+            prototype.initialize(description);
+            final StateMachinePool pool = new StateMachinePool(prototype);
+            // Each thread walks random games on a machine of its own, by
+            // moves and by move indices in turn, and checks every step
+            // against the reference machine.
+            final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        StateMachine machine = pool.checkOut();
+                        Random random = new Random();
+                        try {
+                            for (int game = 0; game < 20; game++) {
+                                MachineState state = machine.getInitialState();
+                                while (!machine.isTerminal(state)) {
+                                    List<Move> jointMove;
+                                    MachineState next;
+                                    if (game % 2 == 0) {
+                                        jointMove = machine.getRandomJointMove(state);
+                                        next = machine.getNextState(state, jointMove);
+                                    } else {
+                                        int[] indices = new int[machine.getRoles().size()];
+                                        jointMove = new ArrayList<Move>();
+                                        for (int r = 0; r < indices.length; r++) {
+                                            int[] legals = machine.getLegalMoveIndices(state, r);
+                                            indices[r] = legals[random.nextInt(legals.length)];
+                                            jointMove.add(machine.getMove(r, indices[r]));
+                                        }
+                                        next = machine.getNextState(state, indices);
+                                    }
+                                    synchronized (reference) {
+                                        assertEquals(reference.getNextState(state, jointMove), next);
+                                    }
+                                    state = next;
+                                }
+                                synchronized (reference) {
+                                    assertEquals(reference.getGoals(state), machine.getGoals(state));
+                                }
+                            }
+                        } catch (Throwable t) {
+                            failures.add(t);
+                        } finally {
+                            pool.checkIn(machine);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(failures.toString(), 0, failures.size());
+        }
+        assertNull(new SamplePropNetStateMachine().copy());
+    }
+
+    @Test
+    public void testParallelFactoryOnConnectFour() throws Exception {
+        List<Gdl> description = new TestGameRepository().getGame("connectFour").getRules();
+        PropNet serial = OptimizingPropNetFactory.create(description);
+        PropNet parallel = OptimizingPropNetFactory.create(description, 4);
+        assertEquals(serial.getComponents().size(), parallel.getComponents().size());
+        assertEquals(serial.getNumLinks(), parallel.getNumLinks());
+        assertEquals(serial.getBasePropositions().keySet(), parallel.getBasePropositions().keySet());
+        assertEquals(serial.getInputPropositions().keySet(), parallel.getInputPropositions().keySet());
+    }
+
+    @Test
+    public void testFactorsOfCompoundGame() throws Exception {
+        CompiledPropNetStateMachine machine = new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.FULL, null);
+        machine.initialize(new TestGameRepository().getGame("test_case_6a").getRules());
+        List<StateMachine> factorMachines = machine.getFactorMachines();
+        // One factor per board; the step counter belongs to neither.
+        assertEquals(2, factorMachines.size());
+        Role you = machine.getRoles().get(0);
+        MachineState state = machine.getInitialState();
+        assertEquals(2, machine.getLegalMoves(state, you).size());
+        for (StateMachine factorMachine : factorMachines) {
+            assertEquals(1, factorMachine.getLegalMoves(state, you).size());
+            assertEquals(2, ((FactorStateMachine) factorMachine).getFactor().getBaseSentences().size());
+        }
+
+        machine.initialize(new TestGameRepository().getGame("connectFour").getRules());
+        assertEquals(1, machine.getFactorMachines().size());
+    }
+
+    @Test
+    public void testBitSetStatesMatchPlainStates() throws Exception {
+        List<Gdl> description = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine propNet = new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.FULL, null);
+        propNet.initialize(description);
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(description);
+        MachineState propNetState = propNet.getInitialState();
+        MachineState proverState = prover.getInitialState();
+        while (!prover.isTerminal(proverState)) {
+            MachineState plainState = new MachineState(new HashSet<GdlSentence>(proverState.getContents()));
+            for (MachineState state : new MachineState[] {proverState, plainState}) {
+                assertEquals(propNetState, state);
+                assertEquals(state, propNetState);
+                assertEquals(propNetState.hashCode(), state.hashCode());
+                assertEquals(propNetState.getZobristKey(), state.getZobristKey());
+            }
+            // Each machine also takes the other's states.
+            List<Move> moves = prover.getRandomJointMove(proverState);
+            MachineState nextPropNetState = propNet.getNextState(proverState, moves);
+            proverState = prover.getNextState(propNetState, moves);
+            propNetState = nextPropNetState;
+        }
+        assertTrue(propNet.isTerminal(propNetState));
+    }
+
+    @Test
+    public void testMoveIndicesMatchMoves() throws Exception {
+        List<Gdl> description = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine[] machines = new StateMachine[] {
+                new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.FULL, null),
+                new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.DIFFERENTIAL, null),
+                new ProverStateMachine(),
+                new CachedStateMachine(new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.FULL, null)),
+                new ConcurrentCachedStateMachine(new FailsafeStateMachine(
+                        new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.DIFFERENTIAL, null)))
+        };
+        Random random = new Random(0);
+        for (StateMachine machine : machines) {
+            machine.initialize(description);
+            int numRoles = machine.getRoles().size();
+            for (int game = 0; game < 10; game++) {
+                MachineState state = machine.getInitialState();
+                while (!machine.isTerminal(state)) {
+                    int[] jointMove = new int[numRoles];
+                    List<Move> moves = new ArrayList<Move>();
+                    for (int r = 0; r < numRoles; r++) {
+                        int[] indices = machine.getLegalMoveIndices(state, r);
+                        List<Move> legals = new ArrayList<Move>();
+                        for (int index : indices) {
+                            legals.add(machine.getMove(r, index));
+                            assertEquals(index, machine.getMoveIndex(r, machine.getMove(r, index)));
+                        }
+                        assertEquals(new HashSet<Move>(machine.getLegalMoves(state, machine.getRoles().get(r))), new HashSet<Move>(legals));
+                        jointMove[r] = indices[random.nextInt(indices.length)];
+                        moves.add(machine.getMove(r, jointMove[r]));
+                    }
+                    MachineState next = machine.getNextState(state, jointMove);
+                    assertEquals(machine.getNextState(state, moves), next);
+                    state = next;
+                }
+                int[] goals = new int[numRoles];
+                machine.getGoals(state, goals);
+                for (int r = 0; r < numRoles; r++) {
+                    assertEquals(machine.getGoals(state).get(r).intValue(), goals[r]);
+                }
+            }
+            // A copy numbers moves the same way, even moves it sees first.
+            StateMachine copy = machine.copy();
+            MachineState state = machine.getRandomNextState(machine.getRandomNextState(machine.getInitialState()));
+            for (int r = 0; r < numRoles; r++) {
+                for (int index : copy.getLegalMoveIndices(state, r)) {
+                    assertEquals(index, machine.getMoveIndex(r, copy.getMove(r, index)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testJointMoveIterator() throws Exception {
+        JointMoveIterator jointMoves = new JointMoveIterator(new int[][] {{0, 1}, {5}, {2, 3, 4}});
+        assertEquals(6, jointMoves.size());
+        List<String> enumerated = new ArrayList<String>();
+        while (jointMoves.hasNext()) {
+            enumerated.add(Arrays.toString(jointMoves.next()));
+        }
+        assertEquals(Arrays.asList("[0, 5, 2]", "[0, 5, 3]", "[0, 5, 4]", "[1, 5, 2]", "[1, 5, 3]", "[1, 5, 4]"), enumerated);
+
+        StateMachine machine = new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.FULL, null);
+        machine.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+        MachineState state = machine.getInitialState();
+        jointMoves = machine.getLegalJointMoveIterator(state);
+        Set<List<Move>> moves = new HashSet<List<Move>>();
+        while (jointMoves.hasNext()) {
+            int[] jointMove = jointMoves.next();
+            moves.add(Arrays.asList(machine.getMove(0, jointMove[0]), machine.getMove(1, jointMove[1])));
+        }
+        assertEquals(new HashSet<List<Move>>(machine.getLegalJointMoves(state)), moves);
+        assertEquals(9, new HashSet<MachineState>(machine.getNextStates(state)).size());
+    }
+
+    @Test
+    public void testBatchNextStatesMatchNextStates() throws Exception {
+        List<Gdl> description = new TestGameRepository().getGame("connectFour").getRules();
+        StateMachine[] machines = new StateMachine[] {
+                new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.FULL, null),
+                new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.DIFFERENTIAL, null),
+                new ProverStateMachine(),
+                new CachedStateMachine(new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.FULL, null)),
+                new ConcurrentCachedStateMachine(new FailsafeStateMachine(
+                        new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.DIFFERENTIAL, null)))
+        };
+        Random random = new Random(0);
+        for (StateMachine machine : machines) {
+            machine.initialize(description);
+            MachineState state = machine.getInitialState();
+            while (!machine.isTerminal(state)) {
+                List<int[]> jointMoves = machine.getLegalJointMoveIndices(state);
+                List<MachineState> nextStates = machine.getNextStates(state, jointMoves);
+                assertEquals(jointMoves.size(), nextStates.size());
+                for (int i = 0; i < jointMoves.size(); i++) {
+                    assertEquals(machine.getNextState(state, jointMoves.get(i)), nextStates.get(i));
+                }
+                state = nextStates.get(random.nextInt(nextStates.size()));
+            }
+        }
+    }
+
+    @Test
+    public void testUpdateRootKeepsResults() throws Exception {
+        for (String game : new String[] {"ticTacToe", "connectFour", "test_case_6b"}) {
+            List<Gdl> description = new TestGameRepository().getGame(game).getRules();
+            StateMachine reference = new ProverStateMachine();
+            reference.initialize(description);
+            StateMachine machine = new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.FULL, null);
+            machine.initialize(description);
+            MachineState root = machine.getInitialState();
+            while (!machine.isTerminal(root)) {
+                machine.updateRoot(root);
+                // So must evaluators created after the root moved, on another
+                // thread or in a copy.
+                assertMatchesOnNewThread(reference, machine, root);
+                assertMatchesOnNewThread(reference, machine.copy(), root);
+                // Every random game from the root must still play out the
+                // same as on the reference machine.
+                for (int i = 0; i < 5; i++) {
+                    MachineState state = root;
+                    while (!reference.isTerminal(state)) {
+                        assertFalse(machine.isTerminal(state));
+                        for (Role role : reference.getRoles()) {
+                            assertEquals(new HashSet<Move>(reference.getLegalMoves(state, role)), new HashSet<Move>(machine.getLegalMoves(state, role)));
+                        }
+                        List<Move> jointMove = reference.getRandomJointMove(state);
+                        MachineState next = machine.getNextState(state, jointMove);
+                        assertEquals(reference.getNextState(state, jointMove), next);
+                        assertEquals(next, machine.getNextStateDestructively(state.clone(), jointMove));
+                        state = next;
+                    }
+                    assertTrue(machine.isTerminal(state));
+                    assertEquals(reference.getGoals(state), machine.getGoals(state));
+                }
+                root = machine.getRandomNextState(root);
+            }
+        }
+    }
+
+    private static void assertMatchesOnNewThread(final StateMachine reference, final StateMachine machine, final MachineState state) throws Exception {
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    MachineState current = state;
+                    while (!reference.isTerminal(current)) {
+                        assertFalse(machine.isTerminal(current));
+                        for (Role role : reference.getRoles()) {
+                            assertEquals(new HashSet<Move>(reference.getLegalMoves(current, role)), new HashSet<Move>(machine.getLegalMoves(current, role)));
+                        }
+                        current = reference.getRandomNextState(current);
+                    }
+                    assertTrue(machine.isTerminal(current));
+                    assertEquals(reference.getGoals(current), machine.getGoals(current));
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        assertEquals(failures.toString(), 0, failures.size());
+    }
+
+    @Test
+    public void testLatchesSettleGoals() throws Exception {
+        CompiledPropNetStateMachine machine = new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.FULL, null);
+        machine.initialize(new TestGameRepository().getGame("test_case_6b").getRules());
+        assertTrue(machine.getLatches().getPositiveLatches().contains(GdlPool.getRelation(GdlPool.getConstant("true"), new GdlTerm[] {GdlPool.getConstant("pressed")})));
+        MachineState state = machine.getInitialState();
+        assertNull(machine.getLatchedGoals(state));
+        MachineState pressed = machine.getNextState(state, Collections.singletonList(new Move(GdlPool.getConstant("press"))));
+        assertEquals(Collections.singletonList(0), machine.getLatchedGoals(pressed));
+
+        // A charge that presses the button stops right there.
+        int[] depths = new int[100];
+        int[][] goals = new int[100][1];
+        machine.performDepthCharges(state, depths, goals);
+        boolean stoppedEarly = false;
+        for (int i = 0; i < depths.length; i++) {
+            if (goals[i][0] == 100) {
+                assertEquals(3, depths[i]);
+            } else {
+                assertEquals(0, goals[i][0]);
+                stoppedEarly |= (depths[i] < 3);
+            }
+        }
+        assertTrue(stoppedEarly);
+
+        // Discounted scores need the real length of every game.
+        double[] scores = new double[1];
+        double[] avgDepth = new double[1];
+        machine.getAverageDiscountedScoresFromRepeatedDepthCharges(state, scores, avgDepth, 0.5, 100);
+        assertEquals(3.0, avgDepth[0], 0.0);
+        machine.getAverageDiscountedScoresFromRepeatedDepthCharges(pressed, scores, avgDepth, 0.5, 10);
+        assertEquals(2.0, avgDepth[0], 0.0);
+    }
+
+    @Test
+    public void testCachedPropNetOnConnectFour() throws Exception {
+        File directory = File.createTempFile("propnet-cache", "");
+        directory.delete();
+        try {
+            CompiledPropNetCache cache = new CompiledPropNetCache(directory);
+            List<Gdl> description = new TestGameRepository().getGame("connectFour").getRules();
+            // The first machine fills the cache and the second reads from it.
+            for (int i = 0; i < 2; i++) {
+                StateMachine machine = new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.FULL, cache);
+                machine.initialize(description);
+                assertEquals(1, directory.list().length);
+                StateMachine reference = new ProverStateMachine();
+                reference.initialize(description);
+                assertTrue(StateMachineVerifier.checkMachineConsistency(reference, machine, 1000));
+            }
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testRulesheetHashKeepsRoleOrder() throws Exception {
+        List<Gdl> description = new TestGameRepository().getGame("ticTacToe").getRules();
+        List<Gdl> roleFacts = new ArrayList<Gdl>();
+        List<Gdl> otherRules = new ArrayList<Gdl>();
+        for (Gdl gdl : description) {
+            if (gdl instanceof GdlRelation && ((GdlRelation) gdl).getName().getValue().equals("role")) {
+                roleFacts.add(gdl);
+            } else {
+                otherRules.add(gdl);
+            }
+        }
+        String hash = CompiledPropNetCache.computeRulesheetHash(description);
+        // Reordering the other rules doesn't change the game...
+        Collections.reverse(otherRules);
+        List<Gdl> reordered = new ArrayList<Gdl>(otherRules);
+        reordered.addAll(roleFacts);
+        assertEquals(hash, CompiledPropNetCache.computeRulesheetHash(reordered));
+        // ...but reordering the roles changes the order of the joint moves.
+        Collections.reverse(roleFacts);
+        List<Gdl> swapped = new ArrayList<Gdl>(roleFacts);
+        swapped.addAll(otherRules);
+        assertFalse(hash.equals(CompiledPropNetCache.computeRulesheetHash(swapped)));
+    }
+
+    protected void assertConsistentWithProver(String gameKey) {
+        List<Gdl> description = new TestGameRepository().getGame(gameKey).getRules();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(description);
+        for (StateMachine propNetMachine : newPropNetMachines()) {
+            propNetMachine.initialize(description);
+            assertTrue(gameKey + " on " + propNetMachine.getName(), StateMachineVerifier.checkMachineConsistency(reference, propNetMachine, 1000));
+        }
+    }
+
+    protected StateMachine[] newPropNetMachines() {
+        // These build their propnets from scratch; caching is tested separately.
+        return new StateMachine[] {new SamplePropNetStateMachine(),
+                                   new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.FULL, null),
+                                   new CompiledPropNetStateMachine(CompiledPropNetStateMachine.Propagation.DIFFERENTIAL, null),
+                                   new GeneratedPropNetStateMachine(60000, null)};
+    }
+}
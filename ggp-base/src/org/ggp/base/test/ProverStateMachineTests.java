@@ -3,7 +3,9 @@ package org.ggp.base.test;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 
 import org.ggp.base.util.game.TestGameRepository;
 import org.ggp.base.util.gdl.grammar.Gdl;
@@ -157,6 +159,34 @@ public class ProverStateMachineTests extends Assert {
         assertEquals(Collections.singletonList(100), sm.getGoals(state));
     }
     
+    @Test
+    public void testStaticRelationsAnswerAlike() throws Exception {
+        // Answers to static relations are remembered across queries, so the
+        // machine must keep agreeing with one that played other games.
+        List<Gdl> desc = new TestGameRepository().getGame("connectFour").getRules();
+        sm.initialize(desc);
+        ProverStateMachine reference = new ProverStateMachine();
+        reference.initialize(desc);
+        Random random = new Random(0);
+        for (int game = 0; game < 3; game++) {
+            // The reference first plays out a random game of its own, so
+            // that the two machines have seen different states.
+            reference.performDepthCharge(reference.getInitialState(), new int[1]);
+            MachineState state = sm.getInitialState();
+            while (!sm.isTerminal(state)) {
+                for (Role role : sm.getRoles()) {
+                    assertEquals(new HashSet<Move>(reference.getLegalMoves(state, role)), new HashSet<Move>(sm.getLegalMoves(state, role)));
+                }
+                List<List<Move>> jointMoves = sm.getLegalJointMoves(state);
+                List<Move> jointMove = jointMoves.get(random.nextInt(jointMoves.size()));
+                MachineState next = sm.getNextState(state, jointMove);
+                assertEquals(reference.getNextState(state, jointMove), next);
+                state = next;
+            }
+            assertEquals(reference.getGoals(state), sm.getGoals(state));
+        }
+    }
+
     protected Move move(String description) {
         String[] parts = description.split(" ");
         GdlConstant head = GdlPool.getConstant(parts[0]);
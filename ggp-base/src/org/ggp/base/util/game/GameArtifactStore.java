@@ -0,0 +1,125 @@
+package org.ggp.base.util.game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.factory.compiler.CompiledPropNetCache;
+
+/**
+ * GameArtifactStore keeps whatever a player learns about a game between
+ * matches, such as simulation results or opening moves, so that playing the
+ * same game again can start from there instead of from scratch. Artifacts are
+ * serialized objects, stored on disk in one directory per game and one file
+ * per artifact name.
+ *
+ * Games are identified by the same hash of their rules that names compiled
+ * propnets in the {@link CompiledPropNetCache}, so the store recognizes a
+ * game even when it is sent as an ephemeral game, under another name, or with
+ * its rules reordered. Reordering the roles makes it another game, since
+ * artifacts such as simulated states refer to the roles by position.
+ *
+ * An artifact that can't be read, for example because it was written by an
+ * incompatible version of its class, is treated as missing. Writes go to a
+ * temporary file that is then renamed into place, so readers never see a
+ * partially written artifact.
+ */
+public final class GameArtifactStore {
+    private static GameArtifactStore defaultStore;
+
+    private final File directory;
+
+    public GameArtifactStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the store in the user's home directory, shared by all players.
+     */
+    public static synchronized GameArtifactStore getDefaultStore() {
+        if (defaultStore == null) {
+            defaultStore = new GameArtifactStore(new File(System.getProperty("user.home"), ".ggp-artifact-store"));
+        }
+        return defaultStore;
+    }
+
+    /**
+     * Returns the key under which the artifacts of the game are stored.
+     */
+    public static String getGameKey(Game game) {
+        return CompiledPropNetCache.computeRulesheetHash(game.getRules());
+    }
+
+    private File getFile(String gameKey, String name) {
+        return new File(new File(directory, gameKey), name + ".ser");
+    }
+
+    /**
+     * Returns the artifact stored under the given name for the game, or null
+     * if there is none or it can't be read as an instance of the given type.
+     */
+    public <T extends Serializable> T load(String gameKey, String name, Class<T> type) {
+        File file = getFile(gameKey, name);
+        if (!file.exists()) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                T artifact = type.cast(in.readObject());
+                GamerLogger.log("ArtifactStore", "Loaded " + name + " for game " + gameKey + " in " + (System.currentTimeMillis() - start) + " ms.");
+                return artifact;
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            GamerLogger.logError("ArtifactStore", "Could not read " + file + "; ignoring it.");
+            GamerLogger.logStackTrace("ArtifactStore", e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the artifact under the given name for the game, replacing the
+     * one stored before. Failures are logged rather than thrown, since a
+     * player can always do without its artifacts.
+     */
+    public void save(String gameKey, String name, Serializable artifact) {
+        File file = getFile(gameKey, name);
+        File gameDirectory = file.getParentFile();
+        File temp = null;
+        try {
+            if (!gameDirectory.isDirectory() && !gameDirectory.mkdirs()) {
+                throw new IOException("Could not create " + gameDirectory);
+            }
+            temp = File.createTempFile(file.getName(), ".tmp", gameDirectory);
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeObject(artifact);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                // Some platforms won't rename over an existing file.
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Could not move " + temp + " to " + file);
+                }
+            }
+        } catch (IOException e) {
+            if (temp != null) {
+                temp.delete();
+            }
+            GamerLogger.logError("ArtifactStore", "Could not write " + file + ".");
+            GamerLogger.logStackTrace("ArtifactStore", e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.ggp.base.util.propnet.analysis;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.prover.query.ProverQueryBuilder;
+
+
+/**
+ * One independent sub-game found by the {@link PropNetFactorizer}: a set of
+ * base propositions together with the moves that can affect them. No move of
+ * one factor affects the bases of another, nor whether the moves of another
+ * are legal.
+ */
+public final class PropNetFactor
+{
+	private final Set<GdlSentence> baseSentences;
+	private final Set<GdlSentence> inputSentences;
+
+	PropNetFactor(Set<GdlSentence> baseSentences, Set<GdlSentence> inputSentences)
+	{
+		this.baseSentences = Collections.unmodifiableSet(baseSentences);
+		this.inputSentences = Collections.unmodifiableSet(inputSentences);
+	}
+
+	/**
+	 * Returns the sentences of the factor's base propositions.
+	 */
+	public Set<GdlSentence> getBaseSentences()
+	{
+		return baseSentences;
+	}
+
+	/**
+	 * Returns the <tt>does</tt> sentences of the factor's moves.
+	 */
+	public Set<GdlSentence> getInputSentences()
+	{
+		return inputSentences;
+	}
+
+	public boolean containsMove(Role role, Move move)
+	{
+		return inputSentences.contains(ProverQueryBuilder.toDoes(role, move));
+	}
+
+	@Override
+	public String toString()
+	{
+		return "PropNetFactor" + baseSentences;
+	}
+}
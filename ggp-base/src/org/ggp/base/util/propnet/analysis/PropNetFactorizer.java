@@ -0,0 +1,139 @@
+package org.ggp.base.util.propnet.analysis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.factory.compiler.PropNetCompiler;
+
+
+/**
+ * PropNetFactorizer splits a game into independent sub-games, such as several
+ * boards played side by side. Searching each of those separately avoids the
+ * product of their branching factors.
+ *
+ * Bases and inputs are grouped by connectivity: a base is joined with every
+ * base and input its next-state value depends on, and an input is joined with
+ * every base its legality depends on. Goals and terminal are left out, since
+ * they are what combines the sub-games into one game. Each group that
+ * contains at least one input is a factor; the bases of groups without inputs
+ * (step counters, say) change the same way whatever is played, and belong to
+ * no factor.
+ *
+ * Bases shared by every sub-game, such as a control proposition for whose turn
+ * it is, join everything into a single factor. Such games are not factored.
+ */
+public final class PropNetFactorizer
+{
+	private PropNetFactorizer()
+	{
+	}
+
+	public static List<PropNetFactor> findFactors(PropNet net)
+	{
+		return findFactors(PropNetCompiler.compile(net));
+	}
+
+	/**
+	 * Returns the independent factors of the network, which are all of its
+	 * moves in a single factor if it can't be split.
+	 */
+	public static List<PropNetFactor> findFactors(CompiledPropNet net)
+	{
+		int numBases = net.getNumBases();
+		int numInputs = net.getNumInputProps();
+		// Nodes are the bases, followed by the inputs.
+		int[] nodeOfId = new int[net.getFirstComputedId()];
+		for (int id = 0; id < nodeOfId.length; id++)
+			nodeOfId[id] = -1;
+		for (int base = 0; base < numBases; base++)
+			nodeOfId[base] = base;
+		for (int input = 0; input < numInputs; input++)
+			nodeOfId[net.getInputId(input)] = numBases + input;
+
+		int[] parent = new int[numBases + numInputs];
+		for (int node = 0; node < parent.length; node++)
+			parent[node] = node;
+
+		for (int base = 0; base < numBases; base++) {
+			for (int node : getSourceNodes(net, net.getNextId(base), nodeOfId))
+				union(parent, base, node);
+		}
+		for (int r = 0; r < net.getRoles().size(); r++) {
+			for (int i = 0; i < net.getNumLegals(r); i++) {
+				int input = net.getLegalInput(r, i);
+				if (input == -1)
+					continue;
+				for (int node : getSourceNodes(net, net.getLegalId(r, i), nodeOfId))
+					union(parent, numBases + input, node);
+			}
+		}
+
+		Map<Integer, Set<GdlSentence>> basesByRoot = new HashMap<Integer, Set<GdlSentence>>();
+		Map<Integer, Set<GdlSentence>> inputsByRoot = new HashMap<Integer, Set<GdlSentence>>();
+		List<Integer> roots = new ArrayList<Integer>();
+		for (int input = 0; input < numInputs; input++) {
+			int root = find(parent, numBases + input);
+			if (!inputsByRoot.containsKey(root)) {
+				inputsByRoot.put(root, new HashSet<GdlSentence>());
+				basesByRoot.put(root, new HashSet<GdlSentence>());
+				roots.add(root);
+			}
+			inputsByRoot.get(root).add(net.getInputSentence(input));
+		}
+		for (int base = 0; base < numBases; base++) {
+			Set<GdlSentence> bases = basesByRoot.get(find(parent, base));
+			if (bases != null)
+				bases.add(net.getBaseSentence(base));
+		}
+
+		List<PropNetFactor> factors = new ArrayList<PropNetFactor>(roots.size());
+		for (int root : roots)
+			factors.add(new PropNetFactor(basesByRoot.get(root), inputsByRoot.get(root)));
+		return factors;
+	}
+
+	/**
+	 * Returns the base and input nodes that the component depends on within
+	 * the current state.
+	 */
+	private static Set<Integer> getSourceNodes(CompiledPropNet net, int target, int[] nodeOfId)
+	{
+		Set<Integer> nodes = new HashSet<Integer>();
+		if (target == -1)
+			return nodes;
+		if (target < net.getFirstComputedId()) {
+			if (nodeOfId[target] != -1)
+				nodes.add(nodeOfId[target]);
+			return nodes;
+		}
+		for (int id : net.getCone(new int[] {target})) {
+			for (int k = 0; k < net.getNumInputs(id); k++) {
+				int input = net.getInput(id, k);
+				if (input < net.getFirstComputedId() && nodeOfId[input] != -1)
+					nodes.add(nodeOfId[input]);
+			}
+		}
+		return nodes;
+	}
+
+	private static int find(int[] parent, int node)
+	{
+		while (parent[node] != node) {
+			parent[node] = parent[parent[node]];
+			node = parent[node];
+		}
+		return node;
+	}
+
+	private static void union(int[] parent, int a, int b)
+	{
+		parent[find(parent, a)] = find(parent, b);
+	}
+}
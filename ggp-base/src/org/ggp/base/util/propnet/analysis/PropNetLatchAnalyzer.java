@@ -0,0 +1,180 @@
+package org.ggp.base.util.propnet.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.factory.compiler.PropNetCompiler;
+
+
+/**
+ * PropNetLatchAnalyzer finds the latches of a game: base propositions that,
+ * once true (positive latches) or once false (negative latches), stay that
+ * way for the rest of the game, such as filled cells or captured pieces.
+ *
+ * Each base is checked on its own with three-valued propagation: the base is
+ * fixed, every other base and input is unknown, and the base is a latch if its
+ * next-state value comes out fixed to the same value. A latch also settles a
+ * role's goal if some goal proposition of the role comes out true, since goals
+ * depend only on the bases. Latches that only settle something in
+ * combination with each other are not found.
+ */
+public final class PropNetLatchAnalyzer
+{
+	private static final byte FALSE = 0;
+	private static final byte TRUE = 1;
+	private static final byte UNKNOWN = 2;
+
+	private PropNetLatchAnalyzer()
+	{
+	}
+
+	public static PropNetLatches findLatches(PropNet net)
+	{
+		return findLatches(PropNetCompiler.compile(net));
+	}
+
+	public static PropNetLatches findLatches(CompiledPropNet net)
+	{
+		int numRoles = net.getRoles().size();
+		byte[] values = new byte[net.getNumComponents()];
+		List<Integer> positive = new ArrayList<Integer>();
+		List<Integer> negative = new ArrayList<Integer>();
+		List<List<int[]>> goalLatches = new ArrayList<List<int[]>>(numRoles);
+		for (int r = 0; r < numRoles; r++)
+			goalLatches.add(new ArrayList<int[]>());
+
+		for (int base = 0; base < net.getNumBases(); base++) {
+			int next = net.getNextId(base);
+			if (next == -1)
+				continue;
+			for (byte value = FALSE; value <= TRUE; value++) {
+				evaluate(net, values, base, value);
+				if (values[next] != value)
+					continue;
+				(value == TRUE ? positive : negative).add(base);
+				for (int r = 0; r < numRoles; r++) {
+					for (int i = 0; i < net.getNumGoals(r); i++) {
+						if (values[net.getGoalId(r, i)] == TRUE) {
+							goalLatches.get(r).add(new int[] {base, value, net.getGoalValue(r, i)});
+							break;
+						}
+					}
+				}
+			}
+		}
+		return new PropNetLatches(net, toArray(positive), toArray(negative), goalLatches);
+	}
+
+	/**
+	 * Finds the components whose value can no longer change in the given
+	 * state or any state reachable from it, because they only depend on
+	 * latches that already hold. Returns them as a bitset over component ids,
+	 * and sets the bits of those that are settled to true in settledValues.
+	 */
+	public static long[] findSettledComponents(CompiledPropNet net, PropNetLatches latches, long[] bases, long[] settledValues)
+	{
+		byte[] values = new byte[net.getNumComponents()];
+		resetSources(net, values);
+		for (int base : latches.getPositiveLatchBases()) {
+			if (CompiledPropNet.get(bases, base))
+				values[base] = TRUE;
+		}
+		for (int base : latches.getNegativeLatchBases()) {
+			if (!CompiledPropNet.get(bases, base))
+				values[base] = FALSE;
+		}
+		propagate(net, values);
+
+		long[] settled = new long[(values.length + 63) >>> 6];
+		for (int id = 0; id < values.length; id++) {
+			if (values[id] == UNKNOWN)
+				continue;
+			CompiledPropNet.set(settled, id);
+			if (values[id] == TRUE)
+				CompiledPropNet.set(settledValues, id);
+		}
+		return settled;
+	}
+
+	/**
+	 * Evaluates the network with the given base fixed and every other base and
+	 * input unknown.
+	 */
+	private static void evaluate(CompiledPropNet net, byte[] values, int fixedBase, byte fixedValue)
+	{
+		resetSources(net, values);
+		values[fixedBase] = fixedValue;
+		propagate(net, values);
+	}
+
+	/**
+	 * Sets every source to unknown, except constants. The initial state is
+	 * never computed through the network, so the init proposition is false.
+	 */
+	private static void resetSources(CompiledPropNet net, byte[] values)
+	{
+		for (int id = 0; id < net.getFirstComputedId(); id++) {
+			switch (net.getType(id)) {
+			case CompiledPropNet.CONSTANT_TRUE:
+				values[id] = TRUE;
+				break;
+			case CompiledPropNet.CONSTANT_FALSE:
+				values[id] = FALSE;
+				break;
+			default:
+				values[id] = UNKNOWN;
+				break;
+			}
+		}
+		if (net.getInitId() != -1)
+			values[net.getInitId()] = FALSE;
+	}
+
+	/**
+	 * Computes the three-valued value of every gate from the sources.
+	 */
+	private static void propagate(CompiledPropNet net, byte[] values)
+	{
+		for (int id = net.getFirstComputedId(); id < values.length; id++) {
+			int numInputs = net.getNumInputs(id);
+			byte value;
+			switch (net.getType(id)) {
+			case CompiledPropNet.AND:
+				value = TRUE;
+				for (int k = 0; k < numInputs && value != FALSE; k++) {
+					byte input = values[net.getInput(id, k)];
+					if (input != TRUE)
+						value = input;
+				}
+				break;
+			case CompiledPropNet.OR:
+				value = FALSE;
+				for (int k = 0; k < numInputs && value != TRUE; k++) {
+					byte input = values[net.getInput(id, k)];
+					if (input != FALSE)
+						value = input;
+				}
+				break;
+			case CompiledPropNet.NOT:
+				value = values[net.getInput(id, 0)];
+				if (value != UNKNOWN)
+					value = (byte) (TRUE - value);
+				break;
+			default:
+				value = values[net.getInput(id, 0)];
+				break;
+			}
+			values[id] = value;
+		}
+	}
+
+	private static int[] toArray(List<Integer> list)
+	{
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+}
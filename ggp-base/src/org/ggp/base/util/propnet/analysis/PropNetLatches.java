@@ -0,0 +1,165 @@
+package org.ggp.base.util.propnet.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.statemachine.MachineState;
+
+
+/**
+ * The latches of a game, as found by the {@link PropNetLatchAnalyzer}, and
+ * the goals they settle.
+ *
+ * A goal latch is a latch that, once in its latched value, fixes the goal of
+ * some role for the rest of the game. Goal latches are indexed per role, and
+ * refer to bases by their index in the compiled network.
+ */
+public final class PropNetLatches
+{
+	private final CompiledPropNet net;
+	private final Set<GdlSentence> positiveLatches;
+	private final Set<GdlSentence> negativeLatches;
+	/** The base index of each positive and each negative latch */
+	private final int[] positiveBases;
+	private final int[] negativeBases;
+	/** Per role, the base index of each goal latch */
+	private final int[][] goalLatchBases;
+	/** Per role, whether each goal latch is positive */
+	private final boolean[][] goalLatchPositive;
+	/** Per role, the goal value each goal latch settles */
+	private final int[][] goalLatchValues;
+
+	PropNetLatches(CompiledPropNet net, int[] positiveBases, int[] negativeBases, List<List<int[]>> goalLatches)
+	{
+		this.net = net;
+		this.positiveLatches = toSentences(net, positiveBases);
+		this.negativeLatches = toSentences(net, negativeBases);
+		this.positiveBases = positiveBases;
+		this.negativeBases = negativeBases;
+		int numRoles = goalLatches.size();
+		goalLatchBases = new int[numRoles][];
+		goalLatchPositive = new boolean[numRoles][];
+		goalLatchValues = new int[numRoles][];
+		for (int r = 0; r < numRoles; r++) {
+			List<int[]> latches = goalLatches.get(r);
+			goalLatchBases[r] = new int[latches.size()];
+			goalLatchPositive[r] = new boolean[latches.size()];
+			goalLatchValues[r] = new int[latches.size()];
+			for (int i = 0; i < latches.size(); i++) {
+				goalLatchBases[r][i] = latches.get(i)[0];
+				goalLatchPositive[r][i] = (latches.get(i)[1] != 0);
+				goalLatchValues[r][i] = latches.get(i)[2];
+			}
+		}
+	}
+
+	private static Set<GdlSentence> toSentences(CompiledPropNet net, int[] bases)
+	{
+		Set<GdlSentence> sentences = new HashSet<GdlSentence>();
+		for (int base : bases)
+			sentences.add(net.getBaseSentence(base));
+		return Collections.unmodifiableSet(sentences);
+	}
+
+	/**
+	 * Returns the bases that stay true once they are true.
+	 */
+	public Set<GdlSentence> getPositiveLatches()
+	{
+		return positiveLatches;
+	}
+
+	/**
+	 * Returns the bases that stay false once they are false.
+	 */
+	public Set<GdlSentence> getNegativeLatches()
+	{
+		return negativeLatches;
+	}
+
+	int[] getPositiveLatchBases()
+	{
+		return positiveBases;
+	}
+
+	int[] getNegativeLatchBases()
+	{
+		return negativeBases;
+	}
+
+	public int getNumGoalLatches(int roleIndex)
+	{
+		return goalLatchBases[roleIndex].length;
+	}
+
+	public int getGoalLatchBase(int roleIndex, int latchIndex)
+	{
+		return goalLatchBases[roleIndex][latchIndex];
+	}
+
+	public boolean isGoalLatchPositive(int roleIndex, int latchIndex)
+	{
+		return goalLatchPositive[roleIndex][latchIndex];
+	}
+
+	public int getGoalLatchValue(int roleIndex, int latchIndex)
+	{
+		return goalLatchValues[roleIndex][latchIndex];
+	}
+
+	/**
+	 * Returns the goal of the role if a latch has already settled it in the
+	 * given state, or -1 otherwise.
+	 */
+	public int getLatchedGoal(MachineState state, int roleIndex)
+	{
+		return getLatchedGoal(net.getBaseBits(state), roleIndex);
+	}
+
+	/**
+	 * Like {@link #getLatchedGoal(MachineState, int)}, for a state given as a
+	 * bitset over base indices, such as a value buffer of the network.
+	 */
+	public int getLatchedGoal(long[] bases, int roleIndex)
+	{
+		for (int i = 0; i < goalLatchBases[roleIndex].length; i++) {
+			if (CompiledPropNet.get(bases, goalLatchBases[roleIndex][i]) == goalLatchPositive[roleIndex][i])
+				return goalLatchValues[roleIndex][i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the goal of every role if latches have already settled all of
+	 * them in the given state, or null otherwise.
+	 */
+	public List<Integer> getLatchedGoals(MachineState state)
+	{
+		List<Integer> goals = new ArrayList<Integer>(goalLatchBases.length);
+		for (int r = 0; r < goalLatchBases.length; r++) {
+			int goal = getLatchedGoal(state, r);
+			if (goal == -1)
+				return null;
+			goals.add(goal);
+		}
+		return goals;
+	}
+
+	/**
+	 * Returns true if any role has a goal latch at all; if none does, no state
+	 * will ever have its goals settled early.
+	 */
+	public boolean hasGoalLatches()
+	{
+		for (int[] bases : goalLatchBases) {
+			if (bases.length > 0)
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,613 @@
+package org.ggp.base.util.propnet.architecture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.BaseSentenceIndex;
+import org.ggp.base.util.statemachine.BitSetMachineState;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+
+
+/**
+ * The CompiledPropNet class is an immutable, array-backed form of a
+ * {@link PropNet}, produced by the PropNetCompiler.
+ *
+ * Every component is identified by an int id. The gate type of each component
+ * is stored in a byte array, and its inputs and outputs are stored in
+ * compressed-sparse-row form: the inputs of component <tt>id</tt> are
+ * <tt>inputs[inputOffsets[id]]</tt> up to (but not including)
+ * <tt>inputs[inputOffsets[id + 1]]</tt>, and likewise for outputs.
+ *
+ * Ids are assigned so that evaluation is a single pass over an array:
+ * <ol>
+ * <li>Base propositions come first, so base index <tt>i</tt> is component
+ * id <tt>i</tt>.</li>
+ * <li>Input propositions come next, so input index <tt>i</tt> is component
+ * id <tt>getNumBases() + i</tt>.</li>
+ * <li>The remaining sources (constants, INIT and propositions without inputs)
+ * follow.</li>
+ * <li>All other components follow in topological order, starting at
+ * {@link #getFirstComputedId()}.</li>
+ * </ol>
+ *
+ * Component values are not stored here; they live in a <tt>long[]</tt>
+ * bitset owned by the caller (see {@link #newValueBuffer()}), so one compiled
+ * network can be shared by several evaluators.
+ *
+ * States can be exchanged with the network as {@link BitSetMachineState}s
+ * over {@link #getBaseSentenceIndex()}, whose bits are the base values, so
+ * loading or producing a state never goes through GDL sentences.
+ *
+ * @author Ophir De Jager
+ */
+public final class CompiledPropNet
+{
+	/** A proposition, base or input whose value is set from outside. */
+	public static final byte SOURCE = 0;
+	/** The TRUE constant. */
+	public static final byte CONSTANT_TRUE = 1;
+	/** The FALSE constant. */
+	public static final byte CONSTANT_FALSE = 2;
+	/** A proposition whose value is that of its single input. */
+	public static final byte PROPOSITION = 3;
+	/** A transition, whose value is that of its single input. */
+	public static final byte TRANSITION = 4;
+	/** An AND gate. */
+	public static final byte AND = 5;
+	/** An OR gate. */
+	public static final byte OR = 6;
+	/** A NOT gate. */
+	public static final byte NOT = 7;
+
+	/** The gate type of every component, indexed by id. */
+	private final byte[] types;
+	/** Offsets into <tt>inputs</tt>, indexed by id (with one extra entry). */
+	private final int[] inputOffsets;
+	/** The concatenated input ids of every component. */
+	private final int[] inputs;
+	/** Offsets into <tt>outputs</tt>, indexed by id (with one extra entry). */
+	private final int[] outputOffsets;
+	/** The concatenated output ids of every component. */
+	private final int[] outputs;
+	/** The id of the first component that is computed from its inputs. */
+	private final int firstComputedId;
+
+	/** The names of the base propositions, indexed by base index. */
+	private final GdlSentence[] baseSentences;
+	/** The id of the transition feeding each base, or -1 if there is none. */
+	private final int[] nextIds;
+	/** The base indices that are true in the initial state. */
+	private final int[] initialBases;
+	/** The names of the input propositions, indexed by input index. */
+	private final GdlSentence[] inputSentences;
+
+	/** The player roles. */
+	private final List<Role> roles;
+	/** The ids of the legal propositions, indexed by role index. */
+	private final int[][] legalIds;
+	/** The move of each legal proposition, indexed by role index. */
+	private final Move[][] legalMoves;
+	/** The input index matching each legal proposition, or -1. */
+	private final int[][] legalInputs;
+	/** The ids of the goal propositions, indexed by role index. */
+	private final int[][] goalIds;
+	/** The value of each goal proposition, indexed by role index. */
+	private final int[][] goalValues;
+	/** The id of the terminal proposition, or -1 if there is none. */
+	private final int terminalId;
+	/** The id of the INIT proposition, or -1 if there is none. */
+	private final int initId;
+
+	/** Lookup from base proposition name to base index. */
+	private final Map<GdlSentence, Integer> baseIndices;
+	/** The same numbering, for states stored as bitsets. */
+	private final BaseSentenceIndex baseSentenceIndex;
+	/** Lookup from input proposition name to input index. */
+	private final Map<GdlSentence, Integer> inputIndices;
+	/** Lookup from move to legal index, indexed by role index. */
+	private final List<Map<Move, Integer>> legalIndices;
+
+	public CompiledPropNet(byte[] types, int[] inputOffsets, int[] inputs,
+			int[] outputOffsets, int[] outputs, int firstComputedId,
+			GdlSentence[] baseSentences, int[] nextIds, int[] initialBases,
+			GdlSentence[] inputSentences, List<Role> roles,
+			int[][] legalIds, Move[][] legalMoves, int[][] legalInputs,
+			int[][] goalIds, int[][] goalValues, int terminalId, int initId)
+	{
+		this.types = types;
+		this.inputOffsets = inputOffsets;
+		this.inputs = inputs;
+		this.outputOffsets = outputOffsets;
+		this.outputs = outputs;
+		this.firstComputedId = firstComputedId;
+		this.baseSentences = baseSentences;
+		this.nextIds = nextIds;
+		this.initialBases = initialBases;
+		this.inputSentences = inputSentences;
+		this.roles = Collections.unmodifiableList(roles);
+		this.legalIds = legalIds;
+		this.legalMoves = legalMoves;
+		this.legalInputs = legalInputs;
+		this.goalIds = goalIds;
+		this.goalValues = goalValues;
+		this.terminalId = terminalId;
+		this.initId = initId;
+
+		this.baseIndices = new HashMap<GdlSentence, Integer>();
+		for (int i = 0; i < baseSentences.length; i++)
+			baseIndices.put(baseSentences[i], i);
+		this.baseSentenceIndex = new BaseSentenceIndex(baseSentences);
+		this.inputIndices = new HashMap<GdlSentence, Integer>();
+		for (int i = 0; i < inputSentences.length; i++)
+			inputIndices.put(inputSentences[i], i);
+		this.legalIndices = new ArrayList<Map<Move, Integer>>(legalMoves.length);
+		for (Move[] moves : legalMoves) {
+			Map<Move, Integer> indices = new HashMap<Move, Integer>();
+			for (int i = 0; i < moves.length; i++)
+				indices.put(moves[i], i);
+			legalIndices.add(indices);
+		}
+	}
+
+	// ============================================
+	//          Evaluation over a value buffer
+	// ============================================
+
+	/**
+	 * Allocates a value buffer for this network, with the TRUE constants
+	 * already set and every other component false.
+	 */
+	public long[] newValueBuffer()
+	{
+		long[] values = new long[(types.length + 63) >>> 6];
+		for (int id = 0; id < firstComputedId; id++) {
+			if (types[id] == CONSTANT_TRUE)
+				set(values, id);
+		}
+		return values;
+	}
+
+	/**
+	 * Recomputes every non-source component from the sources, in id order.
+	 *
+	 * @param values
+	 *            A buffer from {@link #newValueBuffer()}, with the bases and
+	 *            inputs already set.
+	 */
+	public void propagate(long[] values)
+	{
+		for (int id = firstComputedId; id < types.length; id++)
+			evaluate(values, id);
+	}
+
+	/**
+	 * Recomputes only the given components, in the given order. For a cone
+	 * from {@link #getCone(int[])} only the sources need to be set, and the
+	 * cone's targets come out up to date.
+	 */
+	public void propagate(long[] values, int[] cone)
+	{
+		for (int id : cone)
+			evaluate(values, id);
+	}
+
+	private void evaluate(long[] values, int id)
+	{
+		int first = inputOffsets[id];
+		int last = inputOffsets[id + 1];
+		boolean value;
+		switch (types[id]) {
+		case AND:
+			value = true;
+			for (int k = first; k < last; k++) {
+				if (!get(values, inputs[k])) {
+					value = false;
+					break;
+				}
+			}
+			break;
+		case OR:
+			value = false;
+			for (int k = first; k < last; k++) {
+				if (get(values, inputs[k])) {
+					value = true;
+					break;
+				}
+			}
+			break;
+		case NOT:
+			value = !get(values, inputs[first]);
+			break;
+		default:
+			value = get(values, inputs[first]);
+			break;
+		}
+		if (value)
+			set(values, id);
+		else
+			clear(values, id);
+	}
+
+	/**
+	 * Returns the value of a component in a value buffer.
+	 */
+	public static boolean get(long[] values, int id)
+	{
+		return (values[id >>> 6] & (1L << id)) != 0;
+	}
+
+	/**
+	 * Sets a component to true in a value buffer.
+	 */
+	public static void set(long[] values, int id)
+	{
+		values[id >>> 6] |= (1L << id);
+	}
+
+	/**
+	 * Sets a component to false in a value buffer.
+	 */
+	public static void clear(long[] values, int id)
+	{
+		values[id >>> 6] &= ~(1L << id);
+	}
+
+	// ============================================
+	//                 Topology
+	// ============================================
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The number of components in the network.
+	 */
+	public int getNumComponents()
+	{
+		return types.length;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The gate type of the component with the given id.
+	 */
+	public byte getType(int id)
+	{
+		return types[id];
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The id of the first component computed from its inputs; all
+	 *         lower ids are sources.
+	 */
+	public int getFirstComputedId()
+	{
+		return firstComputedId;
+	}
+
+	public int getNumInputs(int id)
+	{
+		return inputOffsets[id + 1] - inputOffsets[id];
+	}
+
+	public int getInput(int id, int k)
+	{
+		return inputs[inputOffsets[id] + k];
+	}
+
+	public int getNumOutputs(int id)
+	{
+		return outputOffsets[id + 1] - outputOffsets[id];
+	}
+
+	public int getOutput(int id, int k)
+	{
+		return outputs[outputOffsets[id] + k];
+	}
+
+	/**
+	 * Returns, in evaluation order, the ids of every computed component that
+	 * one of the targets depends on (including the targets themselves).
+	 * Sources are not included, and the search does not go past them, so it
+	 * never crosses into the previous state. Targets of -1 are ignored.
+	 */
+	public int[] getCone(int[] targets)
+	{
+		boolean[] needed = new boolean[types.length];
+		int[] stack = new int[types.length];
+		int size = 0;
+		for (int target : targets) {
+			if (target >= firstComputedId && !needed[target]) {
+				needed[target] = true;
+				stack[size++] = target;
+			}
+		}
+		int count = size;
+		while (size > 0) {
+			int id = stack[--size];
+			for (int k = inputOffsets[id]; k < inputOffsets[id + 1]; k++) {
+				int input = inputs[k];
+				if (input >= firstComputedId && !needed[input]) {
+					needed[input] = true;
+					stack[size++] = input;
+					count++;
+				}
+			}
+		}
+		int[] cone = new int[count];
+		int k = 0;
+		for (int id = firstComputedId; id < types.length; id++) {
+			if (needed[id])
+				cone[k++] = id;
+		}
+		return cone;
+	}
+
+	/**
+	 * Returns the ids of all legal propositions, across roles.
+	 */
+	public int[] getAllLegalIds()
+	{
+		return flatten(legalIds);
+	}
+
+	/**
+	 * Returns the ids of all goal propositions, across roles.
+	 */
+	public int[] getAllGoalIds()
+	{
+		return flatten(goalIds);
+	}
+
+	/**
+	 * Returns the ids holding the next-state value of each base, with -1 for
+	 * bases that have none.
+	 */
+	public int[] getNextIds()
+	{
+		return nextIds.clone();
+	}
+
+	private static int[] flatten(int[][] idsByRole)
+	{
+		int size = 0;
+		for (int[] ids : idsByRole)
+			size += ids.length;
+		int[] all = new int[size];
+		int k = 0;
+		for (int[] ids : idsByRole) {
+			System.arraycopy(ids, 0, all, k, ids.length);
+			k += ids.length;
+		}
+		return all;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The number of links between components.
+	 */
+	public int getNumLinks()
+	{
+		return inputs.length;
+	}
+
+	// ============================================
+	//            Game-level indices
+	// ============================================
+
+	public int getNumBases()
+	{
+		return baseSentences.length;
+	}
+
+	public GdlSentence getBaseSentence(int baseIndex)
+	{
+		return baseSentences[baseIndex];
+	}
+
+	/**
+	 * Returns the base index of a (true ...) sentence, or -1 if the network
+	 * has no such base proposition.
+	 */
+	public int getBaseIndex(GdlSentence sentence)
+	{
+		Integer index = baseIndices.get(sentence);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Returns the index numbering base sentences as this network does, shared
+	 * by every state machine on the network.
+	 */
+	public BaseSentenceIndex getBaseSentenceIndex()
+	{
+		return baseSentenceIndex;
+	}
+
+	/**
+	 * Returns the bases that are true in the state, as a bitset over base
+	 * indices with at least one bit per base. For a state over
+	 * {@link #getBaseSentenceIndex()} these are the bits of the state itself,
+	 * so they must not be changed. Sentences that aren't bases are ignored.
+	 */
+	public long[] getBaseBits(MachineState state)
+	{
+		int words = (baseSentences.length + 63) >>> 6;
+		if (state instanceof BitSetMachineState) {
+			BitSetMachineState bitSetState = (BitSetMachineState) state;
+			if (bitSetState.getIndex() == baseSentenceIndex && bitSetState.getBits().length >= words)
+				return bitSetState.getBits();
+		}
+		long[] bits = new long[words];
+		for (GdlSentence sentence : state.getContents()) {
+			int base = getBaseIndex(sentence);
+			if (base != -1)
+				set(bits, base);
+		}
+		return bits;
+	}
+
+	/**
+	 * Returns the state whose true bases are the set bits of the given bitset,
+	 * which the state takes ownership of.
+	 */
+	public MachineState toState(long[] baseBits)
+	{
+		return new BitSetMachineState(baseSentenceIndex, baseBits);
+	}
+
+	/**
+	 * Like {@link #toState(long[])}, for a state that follows the given one.
+	 * If the given state is over {@link #getBaseSentenceIndex()}, the hash code
+	 * and Zobrist key of the new state are updated from the bases that changed
+	 * rather than computed from scratch.
+	 */
+	public MachineState toNextState(MachineState state, long[] nextBaseBits)
+	{
+		if (state instanceof BitSetMachineState && ((BitSetMachineState) state).getIndex() == baseSentenceIndex)
+			return ((BitSetMachineState) state).getSuccessor(nextBaseBits);
+		return toState(nextBaseBits);
+	}
+
+	/**
+	 * Like {@link #toNextState(MachineState, long[])}, but the new state reuses
+	 * the storage of the given one if it can, which must then not be used
+	 * anymore. The given bits are only read.
+	 */
+	public MachineState toNextStateDestructively(MachineState state, long[] nextBaseBits)
+	{
+		if (state instanceof BitSetMachineState && ((BitSetMachineState) state).getIndex() == baseSentenceIndex)
+			return ((BitSetMachineState) state).getSuccessorDestructively(nextBaseBits);
+		return toState(nextBaseBits.clone());
+	}
+
+	/**
+	 * Returns the id of the component holding the next-state value of a base,
+	 * or -1 if the base is always false in the next state.
+	 */
+	public int getNextId(int baseIndex)
+	{
+		return nextIds[baseIndex];
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The base indices that are true in the initial state.
+	 */
+	public int[] getInitialBases()
+	{
+		return initialBases.clone();
+	}
+
+	public int getNumInputProps()
+	{
+		return inputSentences.length;
+	}
+
+	public GdlSentence getInputSentence(int inputIndex)
+	{
+		return inputSentences[inputIndex];
+	}
+
+	/**
+	 * Returns the component id of an input proposition.
+	 */
+	public int getInputId(int inputIndex)
+	{
+		return baseSentences.length + inputIndex;
+	}
+
+	/**
+	 * Returns the input index of a (does ...) sentence, or -1 if the network
+	 * has no such input proposition.
+	 */
+	public int getInputIndex(GdlSentence sentence)
+	{
+		Integer index = inputIndices.get(sentence);
+		return index == null ? -1 : index;
+	}
+
+	public List<Role> getRoles()
+	{
+		return roles;
+	}
+
+	public int getNumLegals(int roleIndex)
+	{
+		return legalIds[roleIndex].length;
+	}
+
+	public int getLegalId(int roleIndex, int legalIndex)
+	{
+		return legalIds[roleIndex][legalIndex];
+	}
+
+	public Move getLegalMove(int roleIndex, int legalIndex)
+	{
+		return legalMoves[roleIndex][legalIndex];
+	}
+
+	/**
+	 * Returns the legal index of a move of the role, or -1 if the network has
+	 * no legal proposition for it.
+	 */
+	public int getLegalIndex(int roleIndex, Move move)
+	{
+		Integer index = legalIndices.get(roleIndex).get(move);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Returns the input index matching a legal proposition, or -1 if the move
+	 * can never be played (its input was optimized away).
+	 */
+	public int getLegalInput(int roleIndex, int legalIndex)
+	{
+		return legalInputs[roleIndex][legalIndex];
+	}
+
+	public int getNumGoals(int roleIndex)
+	{
+		return goalIds[roleIndex].length;
+	}
+
+	public int getGoalId(int roleIndex, int goalIndex)
+	{
+		return goalIds[roleIndex][goalIndex];
+	}
+
+	public int getGoalValue(int roleIndex, int goalIndex)
+	{
+		return goalValues[roleIndex][goalIndex];
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The id of the terminal proposition, or -1 if there is none.
+	 */
+	public int getTerminalId()
+	{
+		return terminalId;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The id of the INIT proposition, or -1 if there is none.
+	 */
+	public int getInitId()
+	{
+		return initId;
+	}
+}
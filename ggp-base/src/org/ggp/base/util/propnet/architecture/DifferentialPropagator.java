@@ -0,0 +1,135 @@
+package org.ggp.base.util.propnet.architecture;
+
+
+/**
+ * The DifferentialPropagator class evaluates a {@link CompiledPropNet}
+ * incrementally. It keeps the last evaluated assignment of every component
+ * together with, for every gate, the number of its inputs that are true.
+ * Changing a source then only touches the components whose value actually
+ * changes: each change adjusts the counters of its outputs in O(1), and only
+ * outputs whose value flips are visited in turn.
+ *
+ * Edges leaving a transition are not followed, since they lead into the next
+ * state rather than the current one.
+ *
+ * This class is not thread-safe.
+ */
+public final class DifferentialPropagator
+{
+	/** The network being evaluated. */
+	private final CompiledPropNet net;
+	/** The value of every component, indexed by id. */
+	private final long[] values;
+	/** The number of true inputs of every component, indexed by id. */
+	private final int[] trueInputs;
+	/** Pending value changes, each encoded as (id << 1) | newValue. */
+	private int[] pending;
+
+	/**
+	 * Creates a propagator with every source false and every other component
+	 * fully evaluated.
+	 */
+	public DifferentialPropagator(CompiledPropNet net)
+	{
+		this.net = net;
+		this.values = net.newValueBuffer();
+		this.trueInputs = new int[net.getNumComponents()];
+		this.pending = new int[64];
+		reset();
+	}
+
+	/**
+	 * Re-evaluates every computed component from the current sources and
+	 * recounts the true inputs of every component.
+	 */
+	public void reset()
+	{
+		net.propagate(values);
+		int n = net.getNumComponents();
+		for (int id = 0; id < n; id++) {
+			int count = 0;
+			for (int k = 0; k < net.getNumInputs(id); k++) {
+				if (CompiledPropNet.get(values, net.getInput(id, k)))
+					count++;
+			}
+			trueInputs[id] = count;
+		}
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The value buffer kept up to date by this propagator. It must not
+	 *         be modified by the caller.
+	 */
+	public long[] getValues()
+	{
+		return values;
+	}
+
+	public boolean get(int id)
+	{
+		return CompiledPropNet.get(values, id);
+	}
+
+	/**
+	 * Sets a source component and pushes the change through the network.
+	 */
+	public void set(int id, boolean value)
+	{
+		if (CompiledPropNet.get(values, id) == value)
+			return;
+		write(id, value);
+		int size = 0;
+		pending[size++] = (id << 1) | (value ? 1 : 0);
+		while (size > 0) {
+			int change = pending[--size];
+			int changed = change >>> 1;
+			if (net.getType(changed) == CompiledPropNet.TRANSITION)
+				continue;
+			int delta = (change & 1) == 1 ? 1 : -1;
+			for (int k = 0; k < net.getNumOutputs(changed); k++) {
+				int output = net.getOutput(changed, k);
+				trueInputs[output] += delta;
+				boolean newValue = evaluate(output);
+				if (newValue != CompiledPropNet.get(values, output)) {
+					write(output, newValue);
+					if (size == pending.length) {
+						int[] grown = new int[size * 2];
+						System.arraycopy(pending, 0, grown, 0, size);
+						pending = grown;
+					}
+					pending[size++] = (output << 1) | (newValue ? 1 : 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the value of a component from its true-input counter. Sources
+	 * keep whatever value they were given.
+	 */
+	private boolean evaluate(int id)
+	{
+		switch (net.getType(id)) {
+		case CompiledPropNet.AND:
+			return trueInputs[id] == net.getNumInputs(id);
+		case CompiledPropNet.OR:
+		case CompiledPropNet.PROPOSITION:
+		case CompiledPropNet.TRANSITION:
+			return trueInputs[id] > 0;
+		case CompiledPropNet.NOT:
+			return trueInputs[id] == 0;
+		default:
+			return CompiledPropNet.get(values, id);
+		}
+	}
+
+	private void write(int id, boolean value)
+	{
+		if (value)
+			CompiledPropNet.set(values, id);
+		else
+			CompiledPropNet.clear(values, id);
+	}
+}
@@ -0,0 +1,35 @@
+package org.ggp.base.util.propnet.architecture;
+
+
+/**
+ * A GeneratedPropNet is a game-specific evaluator for a
+ * {@link CompiledPropNet}, generated as straight-line Java source and
+ * compiled at runtime by the PropNetClassGenerator.
+ *
+ * Every method works on a <tt>boolean[]</tt> indexed by component id, with
+ * the sources (bases, inputs and constants) already set by the caller, and
+ * only recomputes the components that the corresponding query depends on.
+ */
+public interface GeneratedPropNet
+{
+	/**
+	 * Computes every transition, so that the next-state value of base
+	 * <tt>i</tt> can be read from component <tt>getNextId(i)</tt>.
+	 */
+	public void computeNext(boolean[] values);
+
+	/**
+	 * Computes every legal proposition.
+	 */
+	public void computeLegal(boolean[] values);
+
+	/**
+	 * Computes every goal proposition.
+	 */
+	public void computeGoal(boolean[] values);
+
+	/**
+	 * Computes the terminal proposition.
+	 */
+	public void computeTerminal(boolean[] values);
+}
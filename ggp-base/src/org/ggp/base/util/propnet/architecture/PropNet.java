@@ -5,8 +5,10 @@ import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.GdlConstant;
@@ -201,6 +203,41 @@ public final class PropNet
 		return initProposition;
 	}
 
+	/**
+	 * Returns the base propositions that are true in the initial state.
+	 * 
+	 * The factories join INIT into the transitions of the initially-true
+	 * bases through OR gates, so those bases are exactly the ones that INIT
+	 * forces true. Evaluating the transitions with INIT set would instead also
+	 * fire "next" rules against an empty state, e.g. (next evenmove) from
+	 * (not (true evenmove)).
+	 * 
+	 * @return The base propositions that INIT forces true.
+	 */
+	public Set<Proposition> getInitialBasePropositions()
+	{
+		Set<Proposition> initialBases = new HashSet<Proposition>();
+		if (initProposition == null)
+			return initialBases;
+
+		Set<Component> forced = new HashSet<Component>();
+		Queue<Component> toVisit = new LinkedList<Component>();
+		toVisit.add(initProposition);
+		while (!toVisit.isEmpty()) {
+			Component component = toVisit.remove();
+			if (!forced.add(component))
+				continue;
+			for (Component output : component.getOutputs()) {
+				if (component instanceof Transition) {
+					initialBases.add((Proposition) output);
+				} else if (output instanceof Or || output instanceof Transition || output instanceof Proposition) {
+					toVisit.add(output);
+				}
+			}
+		}
+		return initialBases;
+	}
+
 	/**
 	 * Getter method.
 	 * 
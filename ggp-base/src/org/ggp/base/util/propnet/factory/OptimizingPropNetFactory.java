@@ -13,6 +13,12 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
 import org.ggp.base.util.gdl.GdlUtils;
@@ -109,6 +115,19 @@ public class OptimizingPropNetFactory {
 	public static PropNet create(List<Gdl> description) throws InterruptedException {
 		return create(description, false);
 	}
+
+	/**
+	 * Creates a PropNet for the game with the given description, grounding
+	 * independent sentence forms on up to numThreads threads at once.
+	 * 
+	 * @throws InterruptedException if the thread is interrupted during
+	 * PropNet creation.
+	 */
+	public static PropNet create(List<Gdl> description, int numThreads) throws InterruptedException {
+		return create(description, false, CondensationOption.DEFAULT_CONDENSERS,
+		        CondensationIsolator.getDefaultConfiguration(),
+		        SplitterOption.NO_SPLITTER, numThreads);
+	}
 	
 	//These heuristic methods work best on the vast majority of games.
 	//Still problems with conn4, mummyMaze2p_2007, sudoku2;
@@ -135,6 +154,20 @@ public class OptimizingPropNetFactory {
 			CondensationOption condensationOption,
 			CondensationIsolatorConfiguration ciConfig,
 			SplitterOption splitterOption) throws InterruptedException
+	{
+		return create(description, verbose, condensationOption, ciConfig, splitterOption, 1);
+	}
+
+	/**
+	 * With more than one thread, the sentence forms are added level by level
+	 * (see addSentenceFormsInParallel) rather than one at a time.
+	 */
+	public static PropNet create(List<Gdl> description,
+			boolean verbose,
+			CondensationOption condensationOption,
+			CondensationIsolatorConfiguration ciConfig,
+			SplitterOption splitterOption,
+			int numThreads) throws InterruptedException
 	{
 		System.out.println("Building propnet...");
 
@@ -210,57 +243,13 @@ public class OptimizingPropNetFactory {
 		Constant falseComponent = new Constant(false);
 		Map<SentenceForm, ConstantForm> constantForms = new HashMap<SentenceForm, ConstantForm>();
 		Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new HashMap<SentenceForm, Collection<GdlSentence>>();
-		for(SentenceForm form : topologicalOrdering) {
-			ConcurrencyUtils.checkForInterruption();
-			
-			if(verbose) {
-				System.out.print("Adding sentence form " + form);
-				System.out.flush();
-			}
-			if(constantChecker.isConstantForm(form)) {
-				if(verbose)
-					System.out.println(" (constant)");
-				//Only add it if it's important
-				if(form.getName().equals(LEGAL)
-						|| form.getName().equals(GOAL)
-						|| form.getName().equals(INIT)) {
-					//Add it
-					Iterator<GdlSentence> sentenceItr = constantChecker.getTrueSentences(form);
-					if(!sentenceItr.hasNext())
-						System.out.println("Empty sentence iterator");
-					while(sentenceItr.hasNext()) {
-						GdlSentence trueSentence = sentenceItr.next();
-						//System.out.println("Adding prop for sentence " + trueSentence);
-						Proposition trueProp = new Proposition(trueSentence);
-						trueProp.addInput(trueComponent);
-						trueComponent.addOutput(trueProp);
-						//components.put(trueSentence, trueProp);
-						components.put(trueSentence, trueComponent);
-					}
-				}
-
-				if(verbose)
-					System.out.println("Checking whether " + form + " is a functional constant...");
-				addToConstants(form, constantChecker, constantForms);
-				addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
-				
-				continue;
+		if(numThreads > 1) {
+			addSentenceFormsInParallel(topologicalOrdering, dependencyGraph, numThreads, model, description, components, negations, trueComponent, falseComponent, usingBase, usingInput, constantForms, constantChecker, completedSentenceFormValues, verbose);
+		} else {
+			for(SentenceForm form : topologicalOrdering) {
+				ConcurrencyUtils.checkForInterruption();
+				addForm(form, model, description, components, negations, trueComponent, falseComponent, usingBase, usingInput, constantForms, constantChecker, completedSentenceFormValues, verbose);
 			}
-			if(verbose)
-				System.out.println();
-			//TODO: Adjust "recursive forms" appropriately
-			//Add a temporary sentence form thingy? ...
-			Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
-			Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
-			addSentenceForm(form, model, description, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, constantForms, constantChecker, completedSentenceFormValues);
-			//TODO: Pass these over groups of multiple sentence forms
-			if(verbose && !temporaryComponents.isEmpty())
-				System.out.println("Processing temporary components...");
-			processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
-			addFormToCompletedValues(form, completedSentenceFormValues, components);
-			//if(verbose)
-				//TODO: Add this, but with the correct total number of components (not just Propositions)
-				//System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
 		}
 		//Connect "next" to "true"
 		if(verbose)
@@ -860,6 +849,361 @@ public class OptimizingPropNetFactory {
 		return ordering;
 	}
 
+	private static void addForm(SentenceForm form, SentenceModel model,
+			List<Gdl> description, Map<GdlSentence, Component> components,
+			Map<GdlSentence, Component> negations,
+			Constant trueComponent, Constant falseComponent,
+			boolean usingBase, boolean usingInput,
+			Map<SentenceForm, ConstantForm> constantForms, ConstantChecker constantChecker,
+			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+			boolean verbose) throws InterruptedException {
+		if(verbose) {
+			System.out.print("Adding sentence form " + form);
+			System.out.flush();
+		}
+		if(constantChecker.isConstantForm(form)) {
+			if(verbose)
+				System.out.println(" (constant)");
+			//Only add it if it's important
+			if(form.getName().equals(LEGAL)
+					|| form.getName().equals(GOAL)
+					|| form.getName().equals(INIT)) {
+				//Add it
+				Iterator<GdlSentence> sentenceItr = constantChecker.getTrueSentences(form);
+				if(!sentenceItr.hasNext())
+					System.out.println("Empty sentence iterator");
+				while(sentenceItr.hasNext()) {
+					GdlSentence trueSentence = sentenceItr.next();
+					//System.out.println("Adding prop for sentence " + trueSentence);
+					Proposition trueProp = new Proposition(trueSentence);
+					trueProp.addInput(trueComponent);
+					trueComponent.addOutput(trueProp);
+					//components.put(trueSentence, trueProp);
+					components.put(trueSentence, trueComponent);
+				}
+			}
+
+			if(verbose)
+				System.out.println("Checking whether " + form + " is a functional constant...");
+			addToConstants(form, constantChecker, constantForms);
+			addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
+			
+			return;
+		}
+		if(verbose)
+			System.out.println();
+		//TODO: Adjust "recursive forms" appropriately
+		//Add a temporary sentence form thingy? ...
+		Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
+		Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
+		addSentenceForm(form, model, description, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, constantForms, constantChecker, completedSentenceFormValues);
+		//TODO: Pass these over groups of multiple sentence forms
+		if(verbose && !temporaryComponents.isEmpty())
+			System.out.println("Processing temporary components...");
+		processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
+		addFormToCompletedValues(form, completedSentenceFormValues, components);
+		//if(verbose)
+			//TODO: Add this, but with the correct total number of components (not just Propositions)
+			//System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
+	}
+
+	/**
+	 * Adds the sentence forms one level at a time, where each level holds the
+	 * forms whose dependencies are all in earlier levels.
+	 * 
+	 * Within a level, the rules of the non-recursive forms are grounded
+	 * concurrently. Grounding only reads the component maps and components,
+	 * so this thread waits for every task of the level to finish before it
+	 * modifies any of them. The grounded rules are then wired up on this
+	 * thread, form by form, so that all components are still created and
+	 * connected by a single thread.
+	 * Constant and recursive forms are added as in the serial case.
+	 */
+	private static void addSentenceFormsInParallel(List<SentenceForm> topologicalOrdering,
+			Map<SentenceForm, Set<SentenceForm>> dependencyGraph, int numThreads,
+			SentenceModel model, List<Gdl> description,
+			Map<GdlSentence, Component> components,
+			Map<GdlSentence, Component> negations,
+			Constant trueComponent, Constant falseComponent,
+			boolean usingBase, boolean usingInput,
+			Map<SentenceForm, ConstantForm> constantForms, ConstantChecker constantChecker,
+			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+			boolean verbose) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "OptimizingPropNetFactory");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			for(List<SentenceForm> level : getDependencyLevels(topologicalOrdering, dependencyGraph, usingBase, usingInput)) {
+				ConcurrencyUtils.checkForInterruption();
+
+				List<SentenceForm> parallelForms = new ArrayList<SentenceForm>();
+				for(SentenceForm form : level) {
+					if(canGroundInParallel(form, dependencyGraph, constantChecker, usingBase, usingInput)) {
+						parallelForms.add(form);
+					} else {
+						addForm(form, model, description, components, negations, trueComponent, falseComponent, usingBase, usingInput, constantForms, constantChecker, completedSentenceFormValues, verbose);
+					}
+				}
+				if(verbose)
+					System.out.println("Grounding sentence forms " + parallelForms + " on " + numThreads + " threads");
+
+				//The model fills some of its caches lazily; do that here,
+				//before the tasks start reading it
+				for(SentenceForm form : parallelForms) {
+					model.getRelations(form);
+					for(GdlRule rule : model.getRules(form))
+						model.getSentenceForm(rule.getHead());
+				}
+
+				Map<SentenceForm, List<Future<List<GroundRule>>>> tasks = new HashMap<SentenceForm, List<Future<List<GroundRule>>>>();
+				for(SentenceForm form : parallelForms) {
+					List<Future<List<GroundRule>>> futures = new ArrayList<Future<List<GroundRule>>>();
+					for(GdlRule rule : model.getRules(form)) {
+						futures.add(executor.submit(new GroundingTask(rule, model, components, negations, falseComponent, constantForms, constantChecker, completedSentenceFormValues)));
+					}
+					tasks.put(form, futures);
+				}
+
+				//The tasks of later forms still read the maps that wiring
+				//writes to, so collect every result before wiring any form
+				Map<SentenceForm, List<GroundRule>> groundRulesOfForm = new HashMap<SentenceForm, List<GroundRule>>();
+				for(SentenceForm form : parallelForms) {
+					List<GroundRule> groundRules = new ArrayList<GroundRule>();
+					for(Future<List<GroundRule>> future : tasks.get(form))
+						groundRules.addAll(getResult(future));
+					groundRulesOfForm.put(form, groundRules);
+				}
+
+				for(SentenceForm form : parallelForms) {
+					wireSentenceForm(form, model, groundRulesOfForm.get(form), components, negations, trueComponent, falseComponent);
+					addFormToCompletedValues(form, completedSentenceFormValues, components);
+				}
+			}
+		} finally {
+			//Interrupts any tasks still running if we're leaving early
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Splits the topological ordering into levels, such that every form
+	 * depends only on itself and on forms in earlier levels.
+	 */
+	private static List<List<SentenceForm>> getDependencyLevels(List<SentenceForm> topologicalOrdering,
+			Map<SentenceForm, Set<SentenceForm>> dependencyGraph, boolean usingBase, boolean usingInput) {
+		Map<SentenceForm, Integer> levelOfForm = new HashMap<SentenceForm, Integer>();
+		List<List<SentenceForm>> levels = new ArrayList<List<SentenceForm>>();
+		for(SentenceForm form : topologicalOrdering) {
+			Set<SentenceForm> dependencies = new HashSet<SentenceForm>();
+			if(dependencyGraph.get(form) != null)
+				dependencies.addAll(dependencyGraph.get(form));
+			//Same restrictions on base/input as in getTopologicalOrdering
+			if(usingBase && (form.getName().equals(TRUE) || form.getName().equals(NEXT) || form.getName().equals(INIT)))
+				dependencies.add(form.getCopyWithName(BASE));
+			if(usingInput && (form.getName().equals(DOES) || form.getName().equals(LEGAL)))
+				dependencies.add(form.getCopyWithName(INPUT));
+
+			int level = 0;
+			for(SentenceForm dependency : dependencies) {
+				if(!dependency.equals(form) && levelOfForm.containsKey(dependency))
+					level = Math.max(level, levelOfForm.get(dependency) + 1);
+			}
+			levelOfForm.put(form, level);
+			if(level == levels.size())
+				levels.add(new ArrayList<SentenceForm>());
+			levels.get(level).add(form);
+		}
+		return levels;
+	}
+
+	private static boolean canGroundInParallel(SentenceForm form,
+			Map<SentenceForm, Set<SentenceForm>> dependencyGraph, ConstantChecker constantChecker,
+			boolean usingBase, boolean usingInput) {
+		if(constantChecker.isConstantForm(form))
+			return false;
+		//Recursive forms need temporary components
+		if(dependencyGraph.get(form) != null && dependencyGraph.get(form).contains(form))
+			return false;
+		//These are built from base/input instead of rules
+		if(usingInput && form.getName().equals(DOES))
+			return false;
+		if(usingBase && form.getName().equals(TRUE))
+			return false;
+		return true;
+	}
+
+	private static <T> T getResult(Future<T> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof InterruptedException)
+				throw (InterruptedException) cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * A rule with one assignment applied, reduced to the conjuncts that still
+	 * need to be connected.
+	 */
+	private static class GroundRule {
+		final GdlSentence head;
+		final List<GdlSentence> positives = new ArrayList<GdlSentence>();
+		final List<GdlSentence> negatives = new ArrayList<GdlSentence>();
+
+		GroundRule(GdlSentence head) {
+			this.head = head;
+		}
+	}
+
+	/**
+	 * The read-only half of addSentenceForm for one rule of a non-recursive
+	 * sentence form: enumerates the assignments and decides which conjuncts
+	 * to connect, but creates and connects no components.
+	 */
+	private static class GroundingTask implements Callable<List<GroundRule>> {
+		private final GdlRule rule;
+		private final SentenceModel model;
+		private final Map<GdlSentence, Component> components;
+		private final Map<GdlSentence, Component> negations;
+		private final Constant falseComponent;
+		private final Map<SentenceForm, ConstantForm> constantForms;
+		private final ConstantChecker constantChecker;
+		private final Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues;
+
+		GroundingTask(GdlRule rule, SentenceModel model,
+				Map<GdlSentence, Component> components, Map<GdlSentence, Component> negations,
+				Constant falseComponent, Map<SentenceForm, ConstantForm> constantForms,
+				ConstantChecker constantChecker,
+				Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues) {
+			this.rule = rule;
+			this.model = model;
+			this.components = components;
+			this.negations = negations;
+			this.falseComponent = falseComponent;
+			this.constantForms = constantForms;
+			this.constantChecker = constantChecker;
+			this.completedSentenceFormValues = completedSentenceFormValues;
+		}
+
+		@Override
+		public List<GroundRule> call() throws InterruptedException {
+			List<GroundRule> result = new ArrayList<GroundRule>();
+			Assignments assignments = AssignmentsFactory.getAssignmentsForRule(rule, model, constantForms, completedSentenceFormValues);
+
+			Set<GdlVariable> varsInLiveConjuncts = getVarsInLiveConjuncts(rule, constantChecker.getSentenceForms());
+			varsInLiveConjuncts.addAll(GdlUtils.getVariables(rule.getHead()));
+			Set<GdlVariable> varsInRule = new HashSet<GdlVariable>(GdlUtils.getVariables(rule));
+			boolean preventDuplicatesFromConstants =
+				(varsInRule.size() > varsInLiveConjuncts.size());
+
+			for(AssignmentIterator asnItr = assignments.getIterator(); asnItr.hasNext(); ) {
+				Map<GdlVariable, GdlConstant> assignment = asnItr.next();
+				if(assignment == null) continue;
+
+				ConcurrencyUtils.checkForInterruption();
+
+				GroundRule groundRule = new GroundRule(CommonTransforms.replaceVariables(rule.getHead(), assignment));
+				boolean impossible = false;
+				for(GdlLiteral literal : rule.getBody()) {
+					if(literal instanceof GdlSentence) {
+						GdlSentence transformed = CommonTransforms.replaceVariables((GdlSentence) literal, assignment);
+						SentenceForm conjunctForm = model.getSentenceForm(transformed);
+						if(constantChecker.isConstantForm(conjunctForm)) {
+							if(!constantChecker.isTrueConstant(transformed)) {
+								asnItr.changeOneInNext(getVarsInConjunct(literal), assignment);
+								impossible = true;
+							}
+							continue;
+						}
+						Component conj = components.get(transformed);
+						if(conj == null || isThisConstant(conj, falseComponent)) {
+							asnItr.changeOneInNext(getVarsInConjunct(literal), assignment);
+							impossible = true;
+							continue;
+						}
+						groundRule.positives.add(transformed);
+					} else if(literal instanceof GdlNot) {
+						GdlSentence internal = (GdlSentence) ((GdlNot) literal).getBody();
+						GdlSentence transformed = CommonTransforms.replaceVariables(internal, assignment);
+						SentenceForm conjunctForm = model.getSentenceForm(transformed);
+						if(constantChecker.isConstantForm(conjunctForm)) {
+							if(constantChecker.isTrueConstant(transformed)) {
+								asnItr.changeOneInNext(getVarsInConjunct(literal), assignment);
+								impossible = true;
+							}
+							continue;
+						}
+						Component conj = negations.get(transformed);
+						if(isThisConstant(conj, falseComponent)) {
+							asnItr.changeOneInNext(getVarsInConjunct(literal), assignment);
+							impossible = true;
+							continue;
+						}
+						//If the positive can't be true, this conjunct always is
+						if(conj == null && components.get(transformed) == null)
+							continue;
+						groundRule.negatives.add(transformed);
+					} else if(!(literal instanceof GdlDistinct)) {
+						throw new RuntimeException("Unwanted GdlLiteral type");
+					}
+				}
+				if(!impossible) {
+					result.add(groundRule);
+					if(preventDuplicatesFromConstants)
+						asnItr.changeOneInNext(varsInLiveConjuncts, assignment);
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * The half of addSentenceForm that creates and connects the components,
+	 * for rules grounded by a GroundingTask.
+	 */
+	private static void wireSentenceForm(SentenceForm form, SentenceModel model,
+			List<GroundRule> groundRules, Map<GdlSentence, Component> components,
+			Map<GdlSentence, Component> negations,
+			Constant trueComponent, Constant falseComponent) throws InterruptedException {
+		addRelations(form, model, components, negations, trueComponent, falseComponent);
+
+		Map<GdlSentence, Set<Component>> inputsToOr = new HashMap<GdlSentence, Set<Component>>();
+		for(GroundRule groundRule : groundRules) {
+			ConcurrencyUtils.checkForInterruption();
+
+			List<Component> componentsToConnect = new ArrayList<Component>(groundRule.positives.size() + groundRule.negatives.size());
+			for(GdlSentence positive : groundRule.positives)
+				componentsToConnect.add(components.get(positive));
+			for(GdlSentence negative : groundRule.negatives) {
+				Component conj = negations.get(negative);
+				if(conj == null)
+					conj = addNegation(negative, components.get(negative), negations);
+				componentsToConnect.add(conj);
+			}
+
+			Proposition andComponent = new Proposition(TEMP);
+			andify(componentsToConnect, andComponent, trueComponent);
+			if(!isThisConstant(andComponent, falseComponent)) {
+				if(!inputsToOr.containsKey(groundRule.head))
+					inputsToOr.put(groundRule.head, new HashSet<Component>());
+				inputsToOr.get(groundRule.head).add(andComponent);
+			}
+		}
+
+		connectConjuncts(form, model, inputsToOr, components, falseComponent);
+	}
+
 	private static void addSentenceForm(SentenceForm form, SentenceModel model,
 			List<Gdl> description, Map<GdlSentence, Component> components,
 			Map<GdlSentence, Component> negations,
@@ -876,26 +1220,9 @@ public class OptimizingPropNetFactory {
 		//proposition if it isn't actually possible, or replacing it with
 		//true/false if it's a constant.
 
-		Set<GdlRelation> relations = model.getRelations(form);
 		Set<GdlRule> rules = model.getRules(form);
 
-		for(GdlRelation relation : relations) {
-			//We add the sentence as a constant
-			if(relation.getName().equals(LEGAL)
-					|| relation.getName().equals(NEXT)
-					|| relation.getName().equals(GOAL)) {
-				Proposition prop = new Proposition(relation);
-				//Attach to true
-				trueComponent.addOutput(prop);
-				prop.addInput(trueComponent);
-				//Still want the same components;
-				//we just don't want this to be anonymized
-			}
-			//Assign as true
-			components.put(relation, trueComponent);
-			negations.put(relation, falseComponent);
-			continue;
-		}
+		addRelations(form, model, components, negations, trueComponent, falseComponent);
 
 		//For does/true, make nodes based on input/base, if available
 		if(usingInput && form.getName().equals(DOES)) {
@@ -1046,20 +1373,7 @@ public class OptimizingPropNetFactory {
 								continue; //to the next conjunct
 							}
 
-							//Check if we're sharing a component with another sentence with a negation
-							//(i.e. look for "nots" in our outputs and use those instead)
-							Not existingNotOutput = getNotOutput(positive);
-							if(existingNotOutput != null) {
-								componentsToConnect.add(existingNotOutput);
-								negations.put(transformed, existingNotOutput);
-								continue; //to the next conjunct
-							}
-
-							Not not = new Not();
-							not.addInput(positive);
-							positive.addOutput(not);
-							negations.put(transformed, not);
-							conj = not;
+							conj = addNegation(transformed, positive, negations);
 						}
 						componentsToConnect.add(conj);
 					} else if(literal instanceof GdlDistinct) {
@@ -1087,6 +1401,55 @@ public class OptimizingPropNetFactory {
 			}
 		}
 
+		connectConjuncts(form, model, inputsToOr, components, falseComponent);
+	}
+
+
+	private static void addRelations(SentenceForm form, SentenceModel model,
+			Map<GdlSentence, Component> components, Map<GdlSentence, Component> negations,
+			Constant trueComponent, Constant falseComponent) {
+		for(GdlRelation relation : model.getRelations(form)) {
+			//We add the sentence as a constant
+			if(relation.getName().equals(LEGAL)
+					|| relation.getName().equals(NEXT)
+					|| relation.getName().equals(GOAL)) {
+				Proposition prop = new Proposition(relation);
+				//Attach to true
+				trueComponent.addOutput(prop);
+				prop.addInput(trueComponent);
+				//Still want the same components;
+				//we just don't want this to be anonymized
+			}
+			//Assign as true
+			components.put(relation, trueComponent);
+			negations.put(relation, falseComponent);
+		}
+	}
+
+	/**
+	 * Returns a "not" of the positive component, and records it as the
+	 * negation of the sentence.
+	 */
+	private static Component addNegation(GdlSentence sentence, Component positive,
+			Map<GdlSentence, Component> negations) {
+		//Check if we're sharing a component with another sentence with a negation
+		//(i.e. look for "nots" in our outputs and use those instead)
+		Not existingNotOutput = getNotOutput(positive);
+		if(existingNotOutput != null) {
+			negations.put(sentence, existingNotOutput);
+			return existingNotOutput;
+		}
+
+		Not not = new Not();
+		not.addInput(positive);
+		positive.addOutput(not);
+		negations.put(sentence, not);
+		return not;
+	}
+
+	private static void connectConjuncts(SentenceForm form, SentenceModel model,
+			Map<GdlSentence, Set<Component>> inputsToOr,
+			Map<GdlSentence, Component> components, Constant falseComponent) throws InterruptedException {
 		//At the end, we hook up the conjuncts
 		for(Entry<GdlSentence, Set<Component>> entry : inputsToOr.entrySet()) {
 			ConcurrencyUtils.checkForInterruption();
@@ -1121,10 +1484,8 @@ public class OptimizingPropNetFactory {
 				components.put(sentence, prop);
 			}
 		}
-
 	}
 
-
 	private static Set<GdlVariable> getVarsInLiveConjuncts(
 			GdlRule rule, Set<SentenceForm> constantSentenceForms) {
 		Set<GdlVariable> result = new HashSet<GdlVariable>();
@@ -0,0 +1,355 @@
+package org.ggp.base.util.propnet.factory.compiler;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.util.crypto.BaseHashing;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+
+
+/**
+ * CompiledPropNetCache keeps compiled propnets on disk, one file per game,
+ * keyed by a hash of the game's rules. Building a propnet for a large game
+ * can take most of a start clock, while reading it back from a memory-mapped
+ * file takes a small fraction of that.
+ *
+ * The hash is computed over the sorted rules, so reordering a rulesheet still
+ * hits the same entry. A file that can't be read, or was written in another
+ * format version, is treated as a miss and rebuilt.
+ */
+public final class CompiledPropNetCache
+{
+	/**
+	 * The version of the file format. Bump this whenever the format or the
+	 * propnets produced by the factory and compiler change.
+	 */
+	private static final int FORMAT_VERSION = 1;
+	private static final int MAGIC = 0x4747504E; // "GGPN"
+
+	private static CompiledPropNetCache defaultCache;
+
+	private final File directory;
+
+	public CompiledPropNetCache(File directory)
+	{
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the cache in the user's home directory, shared by all players.
+	 */
+	public static synchronized CompiledPropNetCache getDefaultCache()
+	{
+		if (defaultCache == null)
+			defaultCache = new CompiledPropNetCache(new File(System.getProperty("user.home"), ".ggp-propnet-cache"));
+		return defaultCache;
+	}
+
+	/**
+	 * Returns the compiled propnet for the given rules, reading it from the
+	 * cache if possible, and otherwise building it and adding it to the cache.
+	 */
+	public CompiledPropNet getOrCreate(List<Gdl> description) throws InterruptedException
+	{
+		String hash = computeRulesheetHash(description);
+		File file = getFile(hash);
+		if (file.exists()) {
+			long start = System.currentTimeMillis();
+			try {
+				CompiledPropNet net = read(file);
+				GamerLogger.log("StateMachine", "Loaded cached propnet " + hash + " in " + (System.currentTimeMillis() - start) + " ms.");
+				return net;
+			} catch (Exception e) {
+				GamerLogger.logError("StateMachine", "Could not read cached propnet " + file + "; rebuilding it.");
+				GamerLogger.logStackTrace("StateMachine", e);
+			}
+		}
+
+		CompiledPropNet net = PropNetCompiler.compile(OptimizingPropNetFactory.create(description, Runtime.getRuntime().availableProcessors()));
+		try {
+			write(net, file);
+		} catch (IOException e) {
+			GamerLogger.logError("StateMachine", "Could not write cached propnet " + file + ".");
+			GamerLogger.logStackTrace("StateMachine", e);
+		}
+		return net;
+	}
+
+	/**
+	 * Computes a hash of the rules that doesn't depend on their order, except
+	 * for the order of the roles, which is the order of the moves in a joint
+	 * move and is stored with the network.
+	 */
+	public static String computeRulesheetHash(List<Gdl> description)
+	{
+		List<String> rules = new ArrayList<String>(description.size());
+		for (Gdl gdl : description)
+			rules.add(gdl.toString());
+		Collections.sort(rules);
+		StringBuilder canonical = new StringBuilder();
+		for (Role role : Role.computeRoles(description))
+			canonical.append(role).append(' ');
+		canonical.append('\n');
+		for (String rule : rules)
+			canonical.append(rule).append('\n');
+		return BaseHashing.computeSHA1Hash(canonical.toString());
+	}
+
+	private File getFile(String hash)
+	{
+		return new File(directory, hash + ".propnet");
+	}
+
+	// ============================================
+	//                  Writing
+	// ============================================
+
+	/**
+	 * Writes the network to a temporary file and then renames it into place,
+	 * so that readers never see a partially written file.
+	 */
+	public static void write(CompiledPropNet net, File file) throws IOException
+	{
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create " + directory);
+		File temp = File.createTempFile(file.getName(), ".tmp", directory);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			writeTo(net, out);
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			// Some platforms won't rename over an existing file.
+			file.delete();
+			if (!temp.renameTo(file)) {
+				temp.delete();
+				throw new IOException("Could not move " + temp + " to " + file);
+			}
+		}
+	}
+
+	private static void writeTo(CompiledPropNet net, DataOutputStream out) throws IOException
+	{
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+
+		int n = net.getNumComponents();
+		out.writeInt(n);
+		out.writeInt(net.getFirstComputedId());
+		for (int id = 0; id < n; id++)
+			out.writeByte(net.getType(id));
+		for (int id = 0; id < n; id++) {
+			out.writeInt(net.getNumInputs(id));
+			for (int k = 0; k < net.getNumInputs(id); k++)
+				out.writeInt(net.getInput(id, k));
+		}
+		for (int id = 0; id < n; id++) {
+			out.writeInt(net.getNumOutputs(id));
+			for (int k = 0; k < net.getNumOutputs(id); k++)
+				out.writeInt(net.getOutput(id, k));
+		}
+
+		out.writeInt(net.getNumBases());
+		for (int base = 0; base < net.getNumBases(); base++) {
+			writeString(out, net.getBaseSentence(base).toString());
+			out.writeInt(net.getNextId(base));
+		}
+		writeInts(out, net.getInitialBases());
+		out.writeInt(net.getNumInputProps());
+		for (int input = 0; input < net.getNumInputProps(); input++)
+			writeString(out, net.getInputSentence(input).toString());
+
+		List<Role> roles = net.getRoles();
+		out.writeInt(roles.size());
+		for (int r = 0; r < roles.size(); r++) {
+			writeString(out, roles.get(r).getName().getValue());
+			out.writeInt(net.getNumLegals(r));
+			for (int i = 0; i < net.getNumLegals(r); i++) {
+				out.writeInt(net.getLegalId(r, i));
+				writeString(out, net.getLegalMove(r, i).getContents().toString());
+				out.writeInt(net.getLegalInput(r, i));
+			}
+			out.writeInt(net.getNumGoals(r));
+			for (int i = 0; i < net.getNumGoals(r); i++) {
+				out.writeInt(net.getGoalId(r, i));
+				out.writeInt(net.getGoalValue(r, i));
+			}
+		}
+		out.writeInt(net.getTerminalId());
+		out.writeInt(net.getInitId());
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException
+	{
+		out.writeInt(values.length);
+		for (int value : values)
+			out.writeInt(value);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	// ============================================
+	//                  Reading
+	// ============================================
+
+	/**
+	 * Reads a network from a memory-mapped file.
+	 *
+	 * @throws IOException
+	 *             If the file is unreadable, truncated or of another version.
+	 */
+	public static CompiledPropNet read(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return readFrom(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} catch (RuntimeException e) {
+			// Truncated or corrupt files surface as buffer or parse errors.
+			throw new IOException("Malformed propnet file " + file, e);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static CompiledPropNet readFrom(ByteBuffer in) throws IOException
+	{
+		if (in.getInt() != MAGIC)
+			throw new IOException("Not a propnet file");
+		int version = in.getInt();
+		if (version != FORMAT_VERSION)
+			throw new IOException("Propnet file has format version " + version + ", expected " + FORMAT_VERSION);
+
+		int n = in.getInt();
+		int firstComputedId = in.getInt();
+		byte[] types = new byte[n];
+		in.get(types);
+		int[][] inputs = readAdjacency(in, n);
+		int[][] outputs = readAdjacency(in, n);
+
+		int numBases = in.getInt();
+		GdlSentence[] baseSentences = new GdlSentence[numBases];
+		int[] nextIds = new int[numBases];
+		for (int base = 0; base < numBases; base++) {
+			baseSentences[base] = readSentence(in);
+			nextIds[base] = in.getInt();
+		}
+		int[] initialBases = readInts(in);
+		GdlSentence[] inputSentences = new GdlSentence[in.getInt()];
+		for (int input = 0; input < inputSentences.length; input++)
+			inputSentences[input] = readSentence(in);
+
+		int numRoles = in.getInt();
+		List<Role> roles = new ArrayList<Role>(numRoles);
+		int[][] legalIds = new int[numRoles][];
+		Move[][] legalMoves = new Move[numRoles][];
+		int[][] legalInputs = new int[numRoles][];
+		int[][] goalIds = new int[numRoles][];
+		int[][] goalValues = new int[numRoles][];
+		for (int r = 0; r < numRoles; r++) {
+			roles.add(new Role(GdlPool.getConstant(readString(in))));
+			int numLegals = in.getInt();
+			legalIds[r] = new int[numLegals];
+			legalMoves[r] = new Move[numLegals];
+			legalInputs[r] = new int[numLegals];
+			for (int i = 0; i < numLegals; i++) {
+				legalIds[r][i] = in.getInt();
+				try {
+					legalMoves[r][i] = new Move(GdlFactory.createTerm(readString(in)));
+				} catch (Exception e) {
+					throw new IOException("Malformed move in propnet file", e);
+				}
+				legalInputs[r][i] = in.getInt();
+			}
+			int numGoals = in.getInt();
+			goalIds[r] = new int[numGoals];
+			goalValues[r] = new int[numGoals];
+			for (int i = 0; i < numGoals; i++) {
+				goalIds[r][i] = in.getInt();
+				goalValues[r][i] = in.getInt();
+			}
+		}
+		int terminalId = in.getInt();
+		int initId = in.getInt();
+
+		// Rebuild the offset arrays from the per-component lists.
+		int[] inputOffsets = new int[n + 1];
+		int[] outputOffsets = new int[n + 1];
+		for (int id = 0; id < n; id++) {
+			inputOffsets[id + 1] = inputOffsets[id] + inputs[id].length;
+			outputOffsets[id + 1] = outputOffsets[id] + outputs[id].length;
+		}
+		return new CompiledPropNet(types, inputOffsets, flatten(inputs, inputOffsets[n]),
+				outputOffsets, flatten(outputs, outputOffsets[n]), firstComputedId,
+				baseSentences, nextIds, initialBases, inputSentences, roles,
+				legalIds, legalMoves, legalInputs, goalIds, goalValues, terminalId, initId);
+	}
+
+	private static int[][] readAdjacency(ByteBuffer in, int n)
+	{
+		int[][] lists = new int[n][];
+		for (int id = 0; id < n; id++)
+			lists[id] = readInts(in);
+		return lists;
+	}
+
+	private static int[] flatten(int[][] lists, int size)
+	{
+		int[] flat = new int[size];
+		int k = 0;
+		for (int[] list : lists) {
+			System.arraycopy(list, 0, flat, k, list.length);
+			k += list.length;
+		}
+		return flat;
+	}
+
+	private static int[] readInts(ByteBuffer in)
+	{
+		int[] values = new int[in.getInt()];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + 4 * values.length);
+		return values;
+	}
+
+	private static GdlSentence readSentence(ByteBuffer in) throws IOException
+	{
+		String sentence = readString(in);
+		try {
+			return (GdlSentence) GdlFactory.create(sentence);
+		} catch (Exception e) {
+			throw new IOException("Malformed sentence in propnet file: " + sentence, e);
+		}
+	}
+
+	private static String readString(ByteBuffer in) throws IOException
+	{
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
@@ -0,0 +1,259 @@
+package org.ggp.base.util.propnet.factory.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.GeneratedPropNet;
+
+
+/**
+ * PropNetClassGenerator turns a {@link CompiledPropNet} into straight-line
+ * Java source, one assignment per gate, compiles that source in-process with
+ * the system {@link JavaCompiler} and loads the result as a
+ * {@link GeneratedPropNet}.
+ *
+ * Each query (next state, legal, goal, terminal) gets its own entry point that
+ * only evaluates the gates the query depends on. Entry points are split into
+ * several private methods so that large games stay below the JVM's limit on
+ * method size.
+ *
+ * Compilation needs a JDK; on a plain JRE {@link #generate} fails and the
+ * caller is expected to fall back to an interpreted propnet.
+ */
+public final class PropNetClassGenerator
+{
+	/** The rough number of gate inputs emitted per generated method. */
+	private static final int MAX_COST_PER_METHOD = 3000;
+	/** Gates with more inputs than this are emitted as several statements. */
+	private static final int MAX_INPUTS_PER_EXPRESSION = 16;
+
+	private static final AtomicInteger classCounter = new AtomicInteger();
+
+	private PropNetClassGenerator()
+	{
+	}
+
+	/**
+	 * Generates, compiles and loads an evaluator for the given network.
+	 *
+	 * @param timeoutMillis
+	 *            The time budget for generation and compilation.
+	 * @throws TimeoutException
+	 *             If the budget was exceeded.
+	 * @throws IllegalStateException
+	 *             If no compiler is available or the source failed to compile.
+	 */
+	public static GeneratedPropNet generate(final CompiledPropNet net, long timeoutMillis)
+	throws TimeoutException, InterruptedException
+	{
+		ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				// A compiler that overruns its budget can't always be
+				// interrupted, so don't let it keep the JVM alive.
+				Thread thread = new Thread(r, "PropNetClassGenerator");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			Future<GeneratedPropNet> future = executor.submit(new Callable<GeneratedPropNet>() {
+				@Override
+				public GeneratedPropNet call() throws Exception {
+					String className = "GeneratedPropNet" + classCounter.incrementAndGet();
+					return load(className, generateSource(net, className));
+				}
+			});
+			try {
+				return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				future.cancel(true);
+				throw e;
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new IllegalStateException("Could not generate the propnet class", e.getCause());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Generates the source of a class named <tt>className</tt>, in the default
+	 * package, that implements {@link GeneratedPropNet} for the given network.
+	 */
+	public static String generateSource(CompiledPropNet net, String className)
+	{
+		StringBuilder source = new StringBuilder();
+		source.append("public final class ").append(className)
+			.append(" implements ").append(GeneratedPropNet.class.getName()).append(" {\n");
+
+		appendEntryPoint(source, net, "computeNext", net.getNextIds());
+		appendEntryPoint(source, net, "computeLegal", net.getAllLegalIds());
+		appendEntryPoint(source, net, "computeGoal", net.getAllGoalIds());
+		appendEntryPoint(source, net, "computeTerminal", new int[] {net.getTerminalId()});
+
+		source.append("}\n");
+		return source.toString();
+	}
+
+	/**
+	 * Emits a public method that evaluates, in id order, every computed
+	 * component the targets depend on.
+	 */
+	private static void appendEntryPoint(StringBuilder source, CompiledPropNet net, String name, int[] targets)
+	{
+		StringBuilder body = new StringBuilder();
+		int part = 0;
+		int cost = 0;
+		for (int id : net.getCone(targets)) {
+			if (cost >= MAX_COST_PER_METHOD) {
+				appendPart(source, name, part++, body);
+				body.setLength(0);
+				cost = 0;
+			}
+			appendGate(body, net, id);
+			cost += net.getNumInputs(id) + 1;
+		}
+		appendPart(source, name, part++, body);
+
+		source.append("  public void ").append(name).append("(boolean[] v) {\n");
+		for (int i = 0; i < part; i++)
+			source.append("    ").append(name).append(i).append("(v);\n");
+		source.append("  }\n");
+	}
+
+	private static void appendPart(StringBuilder source, String name, int part, StringBuilder body)
+	{
+		source.append("  private static void ").append(name).append(part).append("(boolean[] v) {\n");
+		source.append("    boolean t;\n");
+		source.append(body);
+		source.append("  }\n");
+	}
+
+	private static void appendGate(StringBuilder body, CompiledPropNet net, int id)
+	{
+		int numInputs = net.getNumInputs(id);
+		byte type = net.getType(id);
+		if (type == CompiledPropNet.NOT) {
+			body.append("    v[").append(id).append("] = !v[").append(net.getInput(id, 0)).append("];\n");
+			return;
+		}
+		if (type != CompiledPropNet.AND && type != CompiledPropNet.OR) {
+			body.append("    v[").append(id).append("] = v[").append(net.getInput(id, 0)).append("];\n");
+			return;
+		}
+		String operator = (type == CompiledPropNet.AND) ? " && " : " || ";
+		if (numInputs <= MAX_INPUTS_PER_EXPRESSION) {
+			body.append("    v[").append(id).append("] = ");
+			appendInputs(body, net, id, 0, numInputs, operator);
+			body.append(";\n");
+			return;
+		}
+		// Very wide gates are folded in chunks, to keep the expressions shallow.
+		body.append("    t = ");
+		appendInputs(body, net, id, 0, MAX_INPUTS_PER_EXPRESSION, operator);
+		body.append(";\n");
+		for (int k = MAX_INPUTS_PER_EXPRESSION; k < numInputs; k += MAX_INPUTS_PER_EXPRESSION) {
+			body.append("    t = t").append(operator);
+			appendInputs(body, net, id, k, Math.min(numInputs, k + MAX_INPUTS_PER_EXPRESSION), operator);
+			body.append(";\n");
+		}
+		body.append("    v[").append(id).append("] = t;\n");
+	}
+
+	private static void appendInputs(StringBuilder body, CompiledPropNet net, int id, int from, int to, String operator)
+	{
+		for (int k = from; k < to; k++) {
+			if (k > from)
+				body.append(operator);
+			body.append("v[").append(net.getInput(id, k)).append("]");
+		}
+	}
+
+	/**
+	 * Compiles the source in memory and instantiates the resulting class.
+	 */
+	private static GeneratedPropNet load(String className, final String source) throws Exception
+	{
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null)
+			throw new IllegalStateException("No system Java compiler is available");
+
+		final Map<String, ByteArrayOutputStream> classBytes = new HashMap<String, ByteArrayOutputStream>();
+		StandardJavaFileManager standardManager = compiler.getStandardFileManager(null, null, null);
+		JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(standardManager) {
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location, final String name, JavaFileObject.Kind kind, FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension), kind) {
+					@Override
+					public OutputStream openOutputStream() {
+						ByteArrayOutputStream out = new ByteArrayOutputStream();
+						classBytes.put(name, out);
+						return out;
+					}
+				};
+			}
+		};
+		JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///" + className + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-g:none", "-proc:none");
+		try {
+			boolean success = compiler.getTask(null, fileManager, diagnostics, options, null, Collections.singletonList(sourceFile)).call();
+			if (!success)
+				throw new IllegalStateException("Generated propnet class failed to compile: " + diagnostics.getDiagnostics());
+		} finally {
+			fileManager.close();
+		}
+
+		ClassLoader loader = new ClassLoader(GeneratedPropNet.class.getClassLoader()) {
+			@Override
+			protected Class<?> findClass(String name) throws ClassNotFoundException {
+				ByteArrayOutputStream out = classBytes.get(name);
+				if (out == null)
+					throw new ClassNotFoundException(name);
+				byte[] bytes = out.toByteArray();
+				return defineClass(name, bytes, 0, bytes.length);
+			}
+		};
+		try {
+			return (GeneratedPropNet) loader.loadClass(className).getDeclaredConstructor().newInstance();
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException("Generated propnet class failed to initialize", e.getCause());
+		}
+	}
+}
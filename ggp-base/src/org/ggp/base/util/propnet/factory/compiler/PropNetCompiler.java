@@ -0,0 +1,215 @@
+package org.ggp.base.util.propnet.factory.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+
+
+/**
+ * PropNetCompiler flattens a finished {@link PropNet} into a
+ * {@link CompiledPropNet}: every component gets an int id, the topology is
+ * stored in flat arrays, and the ids are laid out so that a single forward
+ * pass evaluates the whole network.
+ *
+ * The source PropNet is only read, so it can be discarded once compiled.
+ */
+public final class PropNetCompiler
+{
+	private PropNetCompiler()
+	{
+	}
+
+	/**
+	 * Compiles a PropNet.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the PropNet contains a cycle that does not pass through
+	 *             a transition.
+	 */
+	public static CompiledPropNet compile(PropNet propNet)
+	{
+		Map<Component, Integer> ids = new HashMap<Component, Integer>();
+		List<Component> order = new ArrayList<Component>();
+
+		// Bases first, so that base index and id coincide.
+		List<Proposition> bases = new ArrayList<Proposition>(propNet.getBasePropositions().values());
+		for (Proposition base : bases)
+			assign(base, ids, order);
+
+		// Then the inputs, in the same way.
+		List<Proposition> inputProps = new ArrayList<Proposition>(propNet.getInputPropositions().values());
+		for (Proposition input : inputProps)
+			assign(input, ids, order);
+
+		// Count the unsettled inputs of every other component. Edges leaving a
+		// transition lead to the next state, so they do not constrain the order.
+		Map<Component, Integer> unsettledInputs = new HashMap<Component, Integer>();
+		Queue<Component> settled = new LinkedList<Component>();
+		for (Component component : propNet.getComponents()) {
+			int count = 0;
+			if (!ids.containsKey(component)) {
+				for (Component input : component.getInputs()) {
+					if (!(input instanceof Transition))
+						count++;
+				}
+				if (count == 0)
+					assign(component, ids, order);
+			}
+			unsettledInputs.put(component, count);
+			if (count == 0)
+				settled.add(component);
+		}
+		int firstComputedId = order.size();
+
+		// Kahn's algorithm over the remaining components.
+		while (!settled.isEmpty()) {
+			Component component = settled.remove();
+			if (component instanceof Transition)
+				continue;
+			for (Component output : component.getOutputs()) {
+				int count = unsettledInputs.get(output) - 1;
+				unsettledInputs.put(output, count);
+				if (count == 0) {
+					assign(output, ids, order);
+					settled.add(output);
+				}
+			}
+		}
+		if (order.size() != propNet.getComponents().size())
+			throw new IllegalArgumentException("The propnet contains a cycle that does not pass through a transition");
+
+		// Flatten the topology.
+		int n = order.size();
+		byte[] types = new byte[n];
+		int[] inputOffsets = new int[n + 1];
+		int[] outputOffsets = new int[n + 1];
+		for (int id = 0; id < n; id++) {
+			Component component = order.get(id);
+			types[id] = typeOf(component, id < firstComputedId);
+			inputOffsets[id + 1] = inputOffsets[id] + component.getInputs().size();
+			outputOffsets[id + 1] = outputOffsets[id] + component.getOutputs().size();
+		}
+		int[] inputs = new int[inputOffsets[n]];
+		int[] outputs = new int[outputOffsets[n]];
+		for (int id = 0; id < n; id++) {
+			Component component = order.get(id);
+			int k = inputOffsets[id];
+			for (Component input : component.getInputs())
+				inputs[k++] = ids.get(input);
+			k = outputOffsets[id];
+			for (Component output : component.getOutputs())
+				outputs[k++] = ids.get(output);
+		}
+
+		// Base-level indices.
+		GdlSentence[] baseSentences = new GdlSentence[bases.size()];
+		int[] nextIds = new int[bases.size()];
+		for (int i = 0; i < bases.size(); i++) {
+			Proposition base = bases.get(i);
+			baseSentences[i] = base.getName();
+			nextIds[i] = -1;
+			for (Component input : base.getInputs()) {
+				if (input instanceof Transition)
+					nextIds[i] = ids.get(input);
+			}
+		}
+		Set<Proposition> initialBaseProps = propNet.getInitialBasePropositions();
+		int[] initialBases = new int[initialBaseProps.size()];
+		int k = 0;
+		for (Proposition base : initialBaseProps)
+			initialBases[k++] = ids.get(base);
+
+		GdlSentence[] inputSentences = new GdlSentence[inputProps.size()];
+		for (int i = 0; i < inputProps.size(); i++)
+			inputSentences[i] = inputProps.get(i).getName();
+
+		// Role-level indices.
+		List<Role> roles = propNet.getRoles();
+		int[][] legalIds = new int[roles.size()][];
+		Move[][] legalMoves = new Move[roles.size()][];
+		int[][] legalInputs = new int[roles.size()][];
+		int[][] goalIds = new int[roles.size()][];
+		int[][] goalValues = new int[roles.size()][];
+		Map<Proposition, Proposition> legalInputMap = propNet.getLegalInputMap();
+		for (int r = 0; r < roles.size(); r++) {
+			List<Proposition> legals = propositionsOf(propNet.getLegalPropositions(), roles.get(r));
+			legalIds[r] = new int[legals.size()];
+			legalMoves[r] = new Move[legals.size()];
+			legalInputs[r] = new int[legals.size()];
+			for (int i = 0; i < legals.size(); i++) {
+				Proposition legal = legals.get(i);
+				legalIds[r][i] = ids.get(legal);
+				legalMoves[r][i] = new Move(legal.getName().get(1));
+				Proposition input = legalInputMap.get(legal);
+				legalInputs[r][i] = input == null ? -1 : ids.get(input) - bases.size();
+			}
+
+			List<Proposition> goals = propositionsOf(propNet.getGoalPropositions(), roles.get(r));
+			goalIds[r] = new int[goals.size()];
+			goalValues[r] = new int[goals.size()];
+			for (int i = 0; i < goals.size(); i++) {
+				Proposition goal = goals.get(i);
+				goalIds[r][i] = ids.get(goal);
+				goalValues[r][i] = Integer.parseInt(((GdlConstant) goal.getName().get(1)).toString());
+			}
+		}
+
+		Proposition terminal = propNet.getTerminalProposition();
+		Proposition init = propNet.getInitProposition();
+		return new CompiledPropNet(types, inputOffsets, inputs, outputOffsets, outputs, firstComputedId,
+				baseSentences, nextIds, initialBases, inputSentences, roles,
+				legalIds, legalMoves, legalInputs, goalIds, goalValues,
+				terminal == null ? -1 : ids.get(terminal),
+				init == null ? -1 : ids.get(init));
+	}
+
+	private static void assign(Component component, Map<Component, Integer> ids, List<Component> order)
+	{
+		ids.put(component, order.size());
+		order.add(component);
+	}
+
+	private static byte typeOf(Component component, boolean isSource)
+	{
+		if (component instanceof Constant)
+			return component.getValue() ? CompiledPropNet.CONSTANT_TRUE : CompiledPropNet.CONSTANT_FALSE;
+		if (isSource)
+			return CompiledPropNet.SOURCE;
+		if (component instanceof And)
+			return CompiledPropNet.AND;
+		if (component instanceof Or)
+			return CompiledPropNet.OR;
+		if (component instanceof Not)
+			return CompiledPropNet.NOT;
+		if (component instanceof Transition)
+			return CompiledPropNet.TRANSITION;
+		// A proposition fed by several rules behaves as their disjunction.
+		return component.getInputs().size() == 1 ? CompiledPropNet.PROPOSITION : CompiledPropNet.OR;
+	}
+
+	private static List<Proposition> propositionsOf(Map<Role, Set<Proposition>> byRole, Role role)
+	{
+		Set<Proposition> propositions = byRole.get(role);
+		if (propositions == null)
+			return new ArrayList<Proposition>();
+		return new ArrayList<Proposition>(propositions);
+	}
+}
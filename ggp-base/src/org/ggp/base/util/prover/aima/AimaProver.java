@@ -1,16 +1,21 @@
 package org.ggp.base.util.prover.aima;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlDistinct;
 import org.ggp.base.util.gdl.grammar.GdlLiteral;
 import org.ggp.base.util.gdl.grammar.GdlNot;
 import org.ggp.base.util.gdl.grammar.GdlOr;
+import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.prover.Prover;
@@ -22,14 +27,116 @@ import org.ggp.base.util.prover.aima.substitution.Substitution;
 import org.ggp.base.util.prover.aima.unifier.Unifier;
 
 
+/**
+ * AimaProver answers queries by backward chaining over the rules of a game,
+ * caching the answers to the sentences it asks along the way.
+ *
+ * Most of those answers depend on the state and moves that a query is asked
+ * in, so they are only cached for the duration of the query. The answers to
+ * static relations, which don't depend on true or does, such as successor
+ * or adjacency relations, are the same in every state, so they are kept in a
+ * memo that is shared by all queries, from any thread.
+ */
 public final class AimaProver extends Prover
 {
+	private static final GdlConstant TRUE = GdlPool.getConstant("true");
+	private static final GdlConstant DOES = GdlPool.getConstant("does");
 
 	private final KnowledgeBase knowledgeBase;
+	/** The relations whose answers don't depend on the context of a query */
+	private final Set<GdlConstant> staticRelations;
+	/** The answers to static relations, shared by all queries */
+	private final ProverCache staticMemo;
 
 	public AimaProver(Set<Gdl> description)
 	{
 		knowledgeBase = new KnowledgeBase(description);
+		staticRelations = findStaticRelations(description);
+		staticMemo = ProverCache.createConcurrentCache();
+	}
+
+	/**
+	 * Returns the relations defined in the description that depend, through
+	 * its rules, on neither true nor does.
+	 */
+	private static Set<GdlConstant> findStaticRelations(Set<Gdl> description)
+	{
+		Map<GdlConstant, Set<GdlConstant>> dependencies = new HashMap<GdlConstant, Set<GdlConstant>>();
+		for (Gdl gdl : description)
+		{
+			GdlSentence head = (gdl instanceof GdlRule) ? ((GdlRule) gdl).getHead() : (GdlSentence) gdl;
+			if (!dependencies.containsKey(head.getName()))
+			{
+				dependencies.put(head.getName(), new HashSet<GdlConstant>());
+			}
+			if (gdl instanceof GdlRule)
+			{
+				GdlRule rule = (GdlRule) gdl;
+				for (int i = 0; i < rule.arity(); i++)
+				{
+					addRelationNames(rule.get(i), dependencies.get(head.getName()));
+				}
+			}
+		}
+
+		Set<GdlConstant> dynamicRelations = new HashSet<GdlConstant>();
+		dynamicRelations.add(TRUE);
+		dynamicRelations.add(DOES);
+		boolean changed = true;
+		while (changed)
+		{
+			changed = false;
+			for (Map.Entry<GdlConstant, Set<GdlConstant>> entry : dependencies.entrySet())
+			{
+				if (!dynamicRelations.contains(entry.getKey()) && !Collections.disjoint(entry.getValue(), dynamicRelations))
+				{
+					dynamicRelations.add(entry.getKey());
+					changed = true;
+				}
+			}
+		}
+
+		Set<GdlConstant> staticRelations = new HashSet<GdlConstant>(dependencies.keySet());
+		staticRelations.removeAll(dynamicRelations);
+		return staticRelations;
+	}
+
+	private static void addRelationNames(GdlLiteral literal, Set<GdlConstant> names)
+	{
+		if (literal instanceof GdlSentence)
+		{
+			names.add(((GdlSentence) literal).getName());
+		}
+		else if (literal instanceof GdlNot)
+		{
+			addRelationNames(((GdlNot) literal).getBody(), names);
+		}
+		else if (literal instanceof GdlOr)
+		{
+			GdlOr or = (GdlOr) literal;
+			for (int i = 0; i < or.arity(); i++)
+			{
+				addRelationNames(or.get(i), names);
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the answers to static relations hold in the context,
+	 * which is the case unless it gives facts about relations other than
+	 * true and does.
+	 */
+	private boolean isStateContext(Set<GdlSentence> context)
+	{
+		for (GdlSentence sentence : context)
+		{
+			GdlConstant name = sentence.getName();
+			if (name != TRUE && name != DOES)
+			{
+				return false;
+			}
+		}
+		return true;
 	}
 
 	private Set<GdlSentence> ask(GdlSentence query, Set<GdlSentence> context, boolean askOne)
@@ -39,7 +146,8 @@ public final class AimaProver extends Prover
 
 		Set<Substitution> answers = new HashSet<Substitution>();
 		Set<GdlSentence> alreadyAsking = new HashSet<GdlSentence>();
-		ask(goals, new KnowledgeBase(context), new Substitution(), new ProverCache(), new VariableRenamer(), askOne, answers, alreadyAsking);
+		ProverCache staticCache = isStateContext(context) ? staticMemo : new ProverCache();
+		ask(goals, new KnowledgeBase(context), new Substitution(), new ProverCache(), staticCache, new VariableRenamer(), askOne, answers, alreadyAsking);
 
 		Set<GdlSentence> results = new HashSet<GdlSentence>();
 		for (Substitution theta : answers)
@@ -50,7 +158,7 @@ public final class AimaProver extends Prover
 		return results;
 	}
 
-	private void ask(LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, Set<GdlSentence> alreadyAsking)
+	private void ask(LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, ProverCache staticCache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, Set<GdlSentence> alreadyAsking)
 	{
 		if (goals.size() == 0)
 		{
@@ -64,22 +172,22 @@ public final class AimaProver extends Prover
 			if (qPrime instanceof GdlDistinct)
 			{
 				GdlDistinct distinct = (GdlDistinct) qPrime;
-				askDistinct(distinct, goals, context, theta, cache, renamer, askOne, results, alreadyAsking);
+				askDistinct(distinct, goals, context, theta, cache, staticCache, renamer, askOne, results, alreadyAsking);
 			}
 			else if (qPrime instanceof GdlNot)
 			{
 				GdlNot not = (GdlNot) qPrime;
-				askNot(not, goals, context, theta, cache, renamer, askOne, results, alreadyAsking);
+				askNot(not, goals, context, theta, cache, staticCache, renamer, askOne, results, alreadyAsking);
 			}
 			else if (qPrime instanceof GdlOr)
 			{
 				GdlOr or = (GdlOr) qPrime;
-				askOr(or, goals, context, theta, cache, renamer, askOne, results, alreadyAsking);
+				askOr(or, goals, context, theta, cache, staticCache, renamer, askOne, results, alreadyAsking);
 			}
 			else
 			{
 				GdlSentence sentence = (GdlSentence) qPrime;
-				askSentence(sentence, goals, context, theta, cache, renamer, askOne, results, alreadyAsking);
+				askSentence(sentence, goals, context, theta, cache, staticCache, renamer, askOne, results, alreadyAsking);
 			}
 
 			goals.addFirst(literal);
@@ -92,25 +200,25 @@ public final class AimaProver extends Prover
 		return ask(query, context, false);
 	}
 
-	private void askDistinct(GdlDistinct distinct, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, Set<GdlSentence> alreadyAsking)
+	private void askDistinct(GdlDistinct distinct, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, ProverCache staticCache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, Set<GdlSentence> alreadyAsking)
 	{
 		if (!distinct.getArg1().equals(distinct.getArg2()))
 		{
-			ask(goals, context, theta, cache, renamer, askOne, results, alreadyAsking);
+			ask(goals, context, theta, cache, staticCache, renamer, askOne, results, alreadyAsking);
 		}
 	}
 
-	private void askNot(GdlNot not, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, Set<GdlSentence> alreadyAsking)
+	private void askNot(GdlNot not, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, ProverCache staticCache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, Set<GdlSentence> alreadyAsking)
 	{
 		LinkedList<GdlLiteral> notGoals = new LinkedList<GdlLiteral>();
 		notGoals.add(not.getBody());
 
 		Set<Substitution> notResults = new HashSet<Substitution>();
-		ask(notGoals, context, theta, cache, renamer, true, notResults, alreadyAsking);
+		ask(notGoals, context, theta, cache, staticCache, renamer, true, notResults, alreadyAsking);
 
 		if (notResults.size() == 0)
 		{
-			ask(goals, context, theta, cache, renamer, askOne, results, alreadyAsking);
+			ask(goals, context, theta, cache, staticCache, renamer, askOne, results, alreadyAsking);
 		}
 	}
 
@@ -121,12 +229,12 @@ public final class AimaProver extends Prover
 		return (results.size() > 0) ? results.iterator().next() : null;
 	}
 
-	private void askOr(GdlOr or, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, Set<GdlSentence> alreadyAsking)
+	private void askOr(GdlOr or, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, ProverCache staticCache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, Set<GdlSentence> alreadyAsking)
 	{
 		for (int i = 0; i < or.arity(); i++)
 		{
 			goals.addFirst(or.get(i));
-			ask(goals, context, theta, cache, renamer, askOne, results, alreadyAsking);
+			ask(goals, context, theta, cache, staticCache, renamer, askOne, results, alreadyAsking);
 			goals.removeFirst();
 
 			if (askOne && (results.size() > 0))
@@ -136,14 +244,24 @@ public final class AimaProver extends Prover
 		}
 	}
 
-	private void askSentence(GdlSentence sentence, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, Set<GdlSentence> alreadyAsking)
+	private void askSentence(GdlSentence sentence, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, ProverCache staticCache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, Set<GdlSentence> alreadyAsking)
 	{
-		if (!cache.contains(sentence))
+		boolean isStatic = staticRelations.contains(sentence.getName());
+		ProverCache sentenceCache = (isStatic && staticCache.contains(sentence)) ? staticCache : cache;
+		if (sentenceCache == cache && isStatic && cache.contains(sentence))
+		{
+			// Answers to static relations are only left in the query's cache
+			// when a cycle was cut short while computing them.
+			cache.recordCycle();
+		}
+		if (!sentenceCache.contains(sentence))
 		{
 			//Prevent infinite loops on certain recursive queries.
 			if(alreadyAsking.contains(sentence)) {
+				cache.recordCycle();
 				return;
 			}
+			int cycles = cache.getCycles();
 			alreadyAsking.add(sentence);
 			List<GdlRule> candidates = new ArrayList<GdlRule>();
 			candidates.addAll(knowledgeBase.fetch(sentence));
@@ -163,17 +281,21 @@ public final class AimaProver extends Prover
 						sentenceGoals.add(r.get(i));
 					}
 
-					ask(sentenceGoals, context, theta.compose(thetaPrime), cache, renamer, false, sentenceResults, alreadyAsking);
+					ask(sentenceGoals, context, theta.compose(thetaPrime), cache, staticCache, renamer, false, sentenceResults, alreadyAsking);
 				}
 			}
 
-			cache.put(sentence, sentenceResults);
+			if (isStatic && cache.getCycles() == cycles)
+			{
+				sentenceCache = staticCache;
+			}
+			sentenceCache.put(sentence, sentenceResults);
 			alreadyAsking.remove(sentence);
 		}
 
-		for (Substitution thetaPrime : cache.get(sentence))
+		for (Substitution thetaPrime : sentenceCache.get(sentence))
 		{
-			ask(goals, context, theta.compose(thetaPrime), cache, renamer, askOne, results, alreadyAsking);
+			ask(goals, context, theta.compose(thetaPrime), cache, staticCache, renamer, askOne, results, alreadyAsking);
 			if (askOne && (results.size() > 0))
 			{
 				break;
@@ -6,6 +6,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.prover.aima.renamer.VariableRenamer;
@@ -18,10 +19,27 @@ public final class ProverCache
 {
 
 	private final Map<GdlSentence, Set<GdlSentence>> contents;
+	/** The number of times a query was cut short to keep it from looping */
+	private int cycles;
 
 	public ProverCache()
 	{
-		contents = new HashMap<GdlSentence, Set<GdlSentence>>();
+		this(new HashMap<GdlSentence, Set<GdlSentence>>());
+	}
+
+	private ProverCache(Map<GdlSentence, Set<GdlSentence>> contents)
+	{
+		this.contents = contents;
+	}
+
+	/**
+	 * Returns a cache that can be shared by queries running on different
+	 * threads. Answers are never removed, so one thread may check that a
+	 * sentence is cached and then get its answers while others put more.
+	 */
+	public static ProverCache createConcurrentCache()
+	{
+		return new ProverCache(new ConcurrentHashMap<GdlSentence, Set<GdlSentence>>());
 	}
 
 	public boolean contains(GdlSentence sentence)
@@ -51,4 +69,19 @@ public final class ProverCache
 		contents.put(new VariableRenamer().rename(sentence), results);
 	}
 
+	/**
+	 * Records that a query was cut short because it was already being
+	 * asked. Answers computed while the count changed may be missing
+	 * whatever the cut query would have found.
+	 */
+	public void recordCycle()
+	{
+		cycles++;
+	}
+
+	public int getCycles()
+	{
+		return cycles;
+	}
+
 }
@@ -0,0 +1,108 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+/**
+ * BaseSentenceIndex numbers the base sentences of a game, so that states can
+ * be stored as bitsets (see {@link BitSetMachineState}). A propnet knows every
+ * base up front and fixes the numbering, while a prover adds sentences as it
+ * first meets them.
+ *
+ * Indices are never reused or renumbered, and the index is safe to share
+ * between threads.
+ */
+public final class BaseSentenceIndex
+{
+    private final Map<GdlSentence, Integer> indices;
+    /** The sentence of every index; replaced, never shrunk, as it grows */
+    private volatile GdlSentence[] sentences;
+    private int size;
+
+    public BaseSentenceIndex()
+    {
+        this(new GdlSentence[0]);
+    }
+
+    /**
+     * Creates an index where sentence <tt>i</tt> of the array has index
+     * <tt>i</tt>.
+     */
+    public BaseSentenceIndex(GdlSentence[] initialSentences)
+    {
+        indices = new HashMap<GdlSentence, Integer>();
+        sentences = new GdlSentence[Math.max(16, initialSentences.length)];
+        for (GdlSentence sentence : initialSentences)
+            add(sentence);
+    }
+
+    /**
+     * Returns the index of the sentence, adding it if it has none yet.
+     */
+    public synchronized int getIndex(GdlSentence sentence)
+    {
+        Integer index = indices.get(sentence);
+        return (index != null) ? index : add(sentence);
+    }
+
+    /**
+     * Returns the index of the sentence, or -1 if it has none.
+     */
+    public synchronized int lookup(GdlSentence sentence)
+    {
+        Integer index = indices.get(sentence);
+        return (index != null) ? index : -1;
+    }
+
+    private int add(GdlSentence sentence)
+    {
+        if (size == sentences.length) {
+            GdlSentence[] grown = new GdlSentence[2 * size];
+            System.arraycopy(sentences, 0, grown, 0, size);
+            sentences = grown;
+        }
+        sentences[size] = sentence;
+        indices.put(sentence, size);
+        return size++;
+    }
+
+    public GdlSentence getSentence(int index)
+    {
+        GdlSentence[] current = sentences;
+        GdlSentence sentence = (index < current.length) ? current[index] : null;
+        if (sentence == null) {
+            // Added by another thread and not yet visible to this one.
+            synchronized (this) {
+                sentence = sentences[index];
+            }
+        }
+        return sentence;
+    }
+
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns a state with the given contents, adding any sentence that has
+     * no index yet.
+     */
+    public BitSetMachineState toState(Set<GdlSentence> contents)
+    {
+        long[] bits = new long[(size() + 64) >>> 6];
+        for (GdlSentence sentence : contents) {
+            int index = getIndex(sentence);
+            if ((index >>> 6) >= bits.length) {
+                long[] grown = new long[(index >>> 6) + 1];
+                System.arraycopy(bits, 0, grown, 0, bits.length);
+                bits = grown;
+            }
+            bits[index >>> 6] |= (1L << index);
+        }
+        return new BitSetMachineState(this, bits);
+    }
+}
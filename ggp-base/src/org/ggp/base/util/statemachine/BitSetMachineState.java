@@ -0,0 +1,195 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+/**
+ * A MachineState stored as a bitset over a {@link BaseSentenceIndex}: bit
+ * <tt>i</tt> is set if sentence <tt>i</tt> of the index is true. The hash code
+ * and Zobrist key are computed once, two states over the same index are
+ * compared word by word, and the GDL contents are only built the first time
+ * they are asked for.
+ *
+ * A successor built with {@link #getSuccessor(long[])} gets its hash code and
+ * Zobrist key by updating those of this state with the sentences that
+ * changed, which is usually only a few per move.
+ *
+ * Hash codes and equality agree with those of any other MachineState with
+ * the same contents, so both kinds can be mixed in maps and sets. The state
+ * is immutable, and so is the set returned by {@link #getContents()}, except
+ * that {@link #getSuccessorDestructively(long[])} hands its storage over to
+ * the successor.
+ */
+public final class BitSetMachineState extends MachineState
+{
+    private final BaseSentenceIndex index;
+    private final long[] bits;
+    private final int hash;
+    private final long zobristKey;
+    /** The contents, built on first use */
+    private volatile Set<GdlSentence> contents;
+
+    /**
+     * Creates a state over the given index. The state takes ownership of the
+     * bits, which must not be changed afterwards.
+     */
+    public BitSetMachineState(BaseSentenceIndex index, long[] bits)
+    {
+        this.index = index;
+        this.bits = bits;
+        // Set.hashCode() is the sum of the elements' hash codes.
+        int hash = 0;
+        long zobristKey = 0;
+        for (int word = 0; word < bits.length; word++) {
+            for (long w = bits[word]; w != 0; w &= w - 1) {
+                GdlSentence sentence = index.getSentence((word << 6) + Long.numberOfTrailingZeros(w));
+                hash += sentence.hashCode();
+                zobristKey ^= ZobristKeys.getKey(sentence);
+            }
+        }
+        this.hash = hash;
+        this.zobristKey = zobristKey;
+    }
+
+    private BitSetMachineState(BaseSentenceIndex index, long[] bits, int hash, long zobristKey)
+    {
+        this.index = index;
+        this.bits = bits;
+        this.hash = hash;
+        this.zobristKey = zobristKey;
+    }
+
+    /**
+     * Returns the state over the same index with the given bits, which the
+     * state takes ownership of, computing its hash code and Zobrist key from
+     * the bits that differ from this state's.
+     */
+    public BitSetMachineState getSuccessor(long[] successorBits)
+    {
+        int hash = this.hash;
+        long zobristKey = this.zobristKey;
+        int words = Math.max(bits.length, successorBits.length);
+        for (int word = 0; word < words; word++) {
+            long before = (word < bits.length) ? bits[word] : 0;
+            long after = (word < successorBits.length) ? successorBits[word] : 0;
+            for (long changed = before ^ after; changed != 0; changed &= changed - 1) {
+                int bit = Long.numberOfTrailingZeros(changed);
+                GdlSentence sentence = index.getSentence((word << 6) + bit);
+                hash += ((after & (1L << bit)) != 0) ? sentence.hashCode() : -sentence.hashCode();
+                zobristKey ^= ZobristKeys.getKey(sentence);
+            }
+        }
+        return new BitSetMachineState(index, successorBits, hash, zobristKey);
+    }
+
+    /**
+     * Like {@link #getSuccessor(long[])}, but the successor is stored in this
+     * state's bits, which are overwritten, and the given bits are only read.
+     * This state must not be used afterwards.
+     */
+    public BitSetMachineState getSuccessorDestructively(long[] successorBits)
+    {
+        if (successorBits.length != bits.length)
+            return getSuccessor(successorBits.clone());
+        BitSetMachineState successor = getSuccessor(successorBits);
+        System.arraycopy(successorBits, 0, bits, 0, bits.length);
+        return new BitSetMachineState(index, bits, successor.hash, successor.zobristKey);
+    }
+
+    public BaseSentenceIndex getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Returns the bits of the state, which must not be changed. Words past the
+     * end of the array are all zero.
+     */
+    public long[] getBits()
+    {
+        return bits;
+    }
+
+    /**
+     * Returns whether sentence <tt>i</tt> of the index is true in this state.
+     */
+    public boolean contains(int i)
+    {
+        int word = i >>> 6;
+        return word < bits.length && (bits[word] & (1L << i)) != 0;
+    }
+
+    @Override
+    public Set<GdlSentence> getContents()
+    {
+        Set<GdlSentence> contents = this.contents;
+        if (contents == null) {
+            contents = new HashSet<GdlSentence>();
+            for (int word = 0; word < bits.length; word++) {
+                for (long w = bits[word]; w != 0; w &= w - 1) {
+                    contents.add(index.getSentence((word << 6) + Long.numberOfTrailingZeros(w)));
+                }
+            }
+            contents = Collections.unmodifiableSet(contents);
+            this.contents = contents;
+        }
+        return contents;
+    }
+
+    @Override
+    public long getZobristKey()
+    {
+        return zobristKey;
+    }
+
+    @Override
+    public MachineState clone()
+    {
+        // A copy of the bits, since the original may be handed over to a
+        // successor by getSuccessorDestructively().
+        BitSetMachineState clone = new BitSetMachineState(index, bits.clone(), hash, zobristKey);
+        clone.contents = contents;
+        return clone;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (o == this)
+            return true;
+        if (!(o instanceof MachineState) || o.hashCode() != hash)
+            return false;
+        if (o instanceof BitSetMachineState) {
+            BitSetMachineState state = (BitSetMachineState) o;
+            if (state.zobristKey != zobristKey)
+                return false;
+            if (state.index != index)
+                return state.getContents().equals(getContents());
+            long[] other = state.bits;
+            int common = Math.min(bits.length, other.length);
+            for (int word = 0; word < common; word++) {
+                if (bits[word] != other[word])
+                    return false;
+            }
+            for (int word = common; word < bits.length; word++) {
+                if (bits[word] != 0)
+                    return false;
+            }
+            for (int word = common; word < other.length; word++) {
+                if (other[word] != 0)
+                    return false;
+            }
+            return true;
+        }
+        return ((MachineState) o).getContents().equals(getContents());
+    }
+}
@@ -1,6 +1,7 @@
 package org.ggp.base.util.statemachine;
 
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
@@ -21,17 +22,30 @@ import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
  * clear that this is helpful, but it's an additional layer of bullet-proofing
  * in case anything goes wrong.
  * 
+ * A fallback machine can also be given, to be tried before the prover if the
+ * initial machine fails to initialize: for example, an interpreted propnet
+ * behind a propnet that is compiled at runtime.
+ * 
  * @author Sam Schreiber
  */
 public class FailsafeStateMachine extends StateMachine
 {   
     private StateMachine theBackingMachine = null;
+    private StateMachine theFallbackMachine = null;
+    // The machine whose move indices callers hold: the one that initialize()
+    // loaded, even after an online failure replaces it with a prover.
+    private StateMachine theIndexingMachine = null;
     private List<Gdl> gameDescription;
     
     public FailsafeStateMachine (StateMachine theInitialMachine) {
         theBackingMachine = theInitialMachine;
     }    
     
+    public FailsafeStateMachine (StateMachine theInitialMachine, StateMachine theFallbackMachine) {
+        theBackingMachine = theInitialMachine;
+        this.theFallbackMachine = theFallbackMachine;
+    }
+    
     @Override
     public String getName() {
         if(theBackingMachine != null) {
@@ -43,13 +57,23 @@ public class FailsafeStateMachine extends StateMachine
     @Override
     public synchronized void initialize(List<Gdl> description) {
         this.gameDescription = description;
+        theIndexingMachine = null;
         
-        if(attemptLoadingInitialMachine())
+        if(attemptLoadingInitialMachine()) {
+            theIndexingMachine = theBackingMachine;
             return;
+        }
 
         GamerLogger.logError("StateMachine", "Failsafe Machine: failed to compile propnet. Falling back...");
-        if(attemptLoadingProverMachine())
+        if(theFallbackMachine != null && attemptLoadingFallbackMachine()) {
+            theIndexingMachine = theBackingMachine;
             return;
+        }
+        
+        if(attemptLoadingProverMachine()) {
+            theIndexingMachine = theBackingMachine;
+            return;
+        }
         
         GamerLogger.logError("StateMachine", "Failsafe Machine: catastrophic failure to load *any* state machine. Cannot recover.");
         GamerLogger.logError("StateMachine", "Failsafe Machine: cannot recover from current state. Shutting down.");
@@ -84,6 +108,22 @@ public class FailsafeStateMachine extends StateMachine
         return false;
     }
 
+    private boolean attemptLoadingFallbackMachine() {
+        try {
+            theFallbackMachine.initialize(gameDescription);
+            theBackingMachine = theFallbackMachine;
+            GamerLogger.log("StateMachine", "Failsafe Machine: successfully loaded fallback state machine " + theFallbackMachine.getName() + ".");
+            return true;
+        } catch(Exception e1) {
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e2) {
+        }
+        return false;
+    }
+
     private boolean attemptLoadingProverMachine() {
         try {
             StateMachine theStateMachine = new ProverStateMachine();
@@ -351,6 +391,71 @@ public class FailsafeStateMachine extends StateMachine
         return performDepthCharge(state, theDepth);
     }
     
+    @Override
+    public void performDepthCharges(MachineState state, int[] theDepths, int[][] theGoals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        if(theBackingMachine == null)
+            return;
+        
+        try {
+            theBackingMachine.performDepthCharges(state, theDepths, theGoals);
+            return;
+        } catch(GoalDefinitionException g) {
+            throw g;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e) {
+            failGracefully(null, e);            
+        }
+        
+        performDepthCharges(state, theDepths, theGoals);
+    }
+    
+    @Override
+    public int performDepthCharge(MachineState state, Random random, int[] theGoals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        if(theBackingMachine == null)
+            return 0;
+        
+        try {
+            return theBackingMachine.performDepthCharge(state, random, theGoals);
+        } catch(GoalDefinitionException g) {
+            throw g;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e) {
+            failGracefully(null, e);            
+        }
+        
+        return performDepthCharge(state, random, theGoals);
+    }
+    
+    @Override
+    public List<Integer> getLatchedGoals(MachineState state) {
+        if(theBackingMachine == null)
+            return null;
+        
+        try {
+            return theBackingMachine.getLatchedGoals(state);
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e) {
+            failGracefully(null, e);            
+        }
+        
+        return getLatchedGoals(state);
+    }
+    
     @Override
     public void updateRoot(MachineState theState) {
         if(theBackingMachine == null)
@@ -372,6 +477,141 @@ public class FailsafeStateMachine extends StateMachine
         updateRoot(theState);
     }
 
+    // Move indices are those of the indexing machine. As long as it is also
+    // the backing machine the calls below go straight to it; after an online
+    // failure, the inherited versions translate between its indices and the
+    // moves of the replacement machine.
+
+    @Override
+    public Move getMove(int roleIndex, int moveIndex) {
+        if(theIndexingMachine == null)
+            return null;
+        
+        return theIndexingMachine.getMove(roleIndex, moveIndex);
+    }
+    
+    @Override
+    public int getMoveIndex(int roleIndex, Move move) {
+        if(theIndexingMachine == null)
+            return -1;
+        
+        return theIndexingMachine.getMoveIndex(roleIndex, move);
+    }
+    
+    @Override
+    public int[] getLegalMoveIndices(MachineState state, int roleIndex) throws MoveDefinitionException {
+        if(theBackingMachine == null)
+            return null;
+        if(theBackingMachine != theIndexingMachine)
+            return super.getLegalMoveIndices(state, roleIndex);
+        
+        try {
+            return theBackingMachine.getLegalMoveIndices(state, roleIndex);
+        } catch(MoveDefinitionException me) {
+            throw me;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(ThreadDeath d) {
+            throw d;            
+        } catch(Error e) {
+            failGracefully(null, e);            
+        }
+        
+        return getLegalMoveIndices(state, roleIndex);
+    }
+    
+    @Override
+    public MachineState getNextState(MachineState state, int[] jointMove) throws TransitionDefinitionException {
+        if(theBackingMachine == null)
+            return null;
+        if(theBackingMachine != theIndexingMachine)
+            return super.getNextState(state, jointMove);
+        
+        try {
+            return theBackingMachine.getNextState(state, jointMove);
+        } catch(TransitionDefinitionException te) {
+            throw te;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;            
+        } catch(Error e) {
+            failGracefully(null, e);            
+        }
+        
+        return getNextState(state, jointMove);
+    }
+    
+    @Override
+    public List<MachineState> getNextStates(MachineState state, List<int[]> jointMoves) throws TransitionDefinitionException {
+        if(theBackingMachine == null)
+            return null;
+        if(theBackingMachine != theIndexingMachine)
+            return super.getNextStates(state, jointMoves);
+        
+        try {
+            return theBackingMachine.getNextStates(state, jointMoves);
+        } catch(TransitionDefinitionException te) {
+            throw te;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;            
+        } catch(Error e) {
+            failGracefully(null, e);            
+        }
+        
+        return getNextStates(state, jointMoves);
+    }
+    
+    @Override
+    public void getGoals(MachineState state, int[] theGoals) throws GoalDefinitionException {
+        if(theBackingMachine == null)
+            return;
+        
+        try {
+            theBackingMachine.getGoals(state, theGoals);
+            return;
+        } catch(GoalDefinitionException g) {
+            throw g;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e) {
+            failGracefully(null, e);            
+        }
+        
+        getGoals(state, theGoals);
+    }
+
+    // The copy wraps a copy of the current backing machine, and falls back to
+    // a prover of its own if that fails.
+    @Override
+    public synchronized StateMachine copy() {
+        if(theBackingMachine == null)
+            return null;
+        
+        StateMachine theBackingCopy = theBackingMachine.copy();
+        if(theBackingCopy == null)
+            return null;
+        
+        FailsafeStateMachine theCopy = new FailsafeStateMachine(theBackingCopy);
+        theCopy.gameDescription = gameDescription;
+        // Copies of a machine share its move indices; a replacement prover
+        // doesn't, so keep translating through the original indexing machine.
+        theCopy.theIndexingMachine = (theBackingMachine == theIndexingMachine) ? theBackingCopy : theIndexingMachine;
+        return theCopy;
+    }
+
     public StateMachine getBackingMachine() {
         return theBackingMachine;
     }
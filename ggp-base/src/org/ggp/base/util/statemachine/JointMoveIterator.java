@@ -0,0 +1,78 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * JointMoveIterator enumerates the legal joint moves of a state one at a
+ * time, as arrays of move indices (see
+ * {@link StateMachine#getLegalMoveIndices(MachineState, int)}), without
+ * building the cross product of the roles' legal moves. A search that stops
+ * after a cutoff therefore never pays for the joint moves it didn't reach.
+ *
+ * The joint moves are enumerated like an odometer, the last role's move
+ * changing fastest. Every call to {@link #next()} returns the same array,
+ * updated in place, so callers that keep a joint move must copy it.
+ */
+public final class JointMoveIterator implements Iterator<int[]>
+{
+    private final int[][] legals;
+    private final int[] positions;
+    private final int[] jointMove;
+    private final int size;
+    private int returned;
+
+    /**
+     * Creates an iterator over the cross product of the given move indices,
+     * one array per role.
+     */
+    public JointMoveIterator(int[][] legals)
+    {
+        this.legals = legals;
+        this.positions = new int[legals.length];
+        this.jointMove = new int[legals.length];
+        int size = 1;
+        for (int[] moves : legals)
+            size *= moves.length;
+        this.size = size;
+    }
+
+    /**
+     * Returns the total number of joint moves, including those already
+     * returned.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return returned < size;
+    }
+
+    @Override
+    public int[] next()
+    {
+        if (returned == size)
+            throw new NoSuchElementException();
+        if (returned > 0) {
+            int r = legals.length - 1;
+            while (++positions[r] == legals[r].length) {
+                positions[r] = 0;
+                r--;
+            }
+        }
+        for (int r = 0; r < legals.length; r++)
+            jointMove[r] = legals[r][positions[r]];
+        returned++;
+        return jointMove;
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -34,6 +34,16 @@ public class MachineState {
 		return new MachineState(new HashSet<GdlSentence>(contents));
 	}
 
+	/**
+	 * Returns the Zobrist key of the state (see {@link ZobristKeys}). Equal
+	 * states have equal keys, and states with different keys are never equal,
+	 * so caches can compare keys before comparing contents.
+	 */
+	public long getZobristKey()
+	{
+		return ZobristKeys.getKey(getContents());
+	}
+
 	/* Utility methods */
     public int hashCode()
     {
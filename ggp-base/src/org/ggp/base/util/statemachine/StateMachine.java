@@ -85,6 +85,124 @@ public abstract class StateMachine
         ;
     }
     
+    // Override this to hand out machines for other threads without initializing them again.
+    // Returns a machine for the same game that shares whatever this one has already built
+    // and never modifies (rules, compiled networks, indices), or null if this machine
+    // can't be copied. Copies must number moves the same way. See StateMachinePool.
+    // CONTRACT: The copy and this machine can be used concurrently from different threads.
+    public StateMachine copy() {
+        return null;
+    }
+    
+    // Override this to report goals that are settled before the game ends, e.g. by latches.
+    // Returns the goal of every role if it's known that the goals will be the same in every
+    // state reachable from "state", and null if that isn't known.
+    // CONTRACT: A non-null result equals getGoals() of any terminal state reachable from "state".
+    public List<Integer> getLatchedGoals(MachineState state) {
+        return null;
+    }
+
+    // ============================================
+    //      Integer-indexed roles and moves
+    // ============================================
+    //
+    //   The following methods mirror the Role/Move-based ones,
+    // with roles given by their position in getRoles() and moves
+    // by a per-role move index, so that search code can work on
+    // int arrays instead of boxed lists and role lookups. The stubs
+    // number moves the first time they see them and go through the
+    // methods above; machines with their own move numbering (like
+    // the propnet machines) should override all of them together.
+    // CONTRACT: A move index stays valid until the machine is initialized again.
+
+    // The move numbering of the stubs. Copies share it (see shareMoveIndices),
+    // so a move index from one copy means the same move in all of them.
+    private static final class MoveTables {
+        private List<Role> roles = null;
+        private List<Map<Move, Integer>> moveIndices;
+        private List<List<Move>> indexedMoves;
+
+        private void check(List<Role> currentRoles) {
+            if (currentRoles != roles) {
+                moveIndices = new ArrayList<Map<Move, Integer>>(currentRoles.size());
+                indexedMoves = new ArrayList<List<Move>>(currentRoles.size());
+                for (int r = 0; r < currentRoles.size(); r++) {
+                    moveIndices.add(new HashMap<Move, Integer>());
+                    indexedMoves.add(new ArrayList<Move>());
+                }
+                roles = currentRoles;
+            }
+        }
+
+        public synchronized Move getMove(List<Role> currentRoles, int roleIndex, int moveIndex) {
+            check(currentRoles);
+            return indexedMoves.get(roleIndex).get(moveIndex);
+        }
+
+        public synchronized int getMoveIndex(List<Role> currentRoles, int roleIndex, Move move) {
+            check(currentRoles);
+            Integer index = moveIndices.get(roleIndex).get(move);
+            if (index == null) {
+                index = indexedMoves.get(roleIndex).size();
+                indexedMoves.get(roleIndex).add(move);
+                moveIndices.get(roleIndex).put(move, index);
+            }
+            return index;
+        }
+    }
+
+    private MoveTables moveTables = new MoveTables();
+
+    // Call this from copy() on the new machine, before handing it out, so that it
+    // numbers moves the same way as "original" instead of starting over.
+    protected void shareMoveIndices(StateMachine original) {
+        moveTables = original.moveTables;
+    }
+
+    public Move getMove(int roleIndex, int moveIndex) {
+        return moveTables.getMove(getRoles(), roleIndex, moveIndex);
+    }
+
+    public int getMoveIndex(int roleIndex, Move move) {
+        return moveTables.getMoveIndex(getRoles(), roleIndex, move);
+    }
+
+    public int[] getLegalMoveIndices(MachineState state, int roleIndex) throws MoveDefinitionException {
+        List<Move> legals = getLegalMoves(state, getRoles().get(roleIndex));
+        int[] indices = new int[legals.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = getMoveIndex(roleIndex, legals.get(i));
+        }
+        return indices;
+    }
+
+    // jointMove holds one move index per role.
+    public MachineState getNextState(MachineState state, int[] jointMove) throws TransitionDefinitionException {
+        List<Move> moves = new ArrayList<Move>(jointMove.length);
+        for (int r = 0; r < jointMove.length; r++) {
+            moves.add(getMove(r, jointMove[r]));
+        }
+        return getNextState(state, moves);
+    }
+
+    // Returns the next state for each of the joint moves, in the same order. Override this
+    // to share the work the transitions have in common, like loading "state" only once.
+    public List<MachineState> getNextStates(MachineState state, List<int[]> jointMoves) throws TransitionDefinitionException {
+        List<MachineState> nextStates = new ArrayList<MachineState>(jointMoves.size());
+        for (int[] jointMove : jointMoves) {
+            nextStates.add(getNextState(state, jointMove));
+        }
+        return nextStates;
+    }
+
+    // Stores the goal of every role in theGoals, which the caller supplies so it can be reused.
+    public void getGoals(MachineState state, int[] theGoals) throws GoalDefinitionException {
+        List<Role> roles = getRoles();
+        for (int r = 0; r < roles.size(); r++) {
+            theGoals[r] = getGoal(state, roles.get(r));
+        }
+    }
+
     // ============================================
     //   Implementations of convenience methods
     // ============================================
@@ -125,26 +243,55 @@ public abstract class StateMachine
         return crossProduct;
     }
 
-    public List<MachineState> getNextStates(MachineState state) throws MoveDefinitionException, TransitionDefinitionException
+    // Returns the legal joint moves of "state" one at a time, as arrays of move indices,
+    // without building the cross product. Each call to next() reuses the same array.
+    public JointMoveIterator getLegalJointMoveIterator(MachineState state) throws MoveDefinitionException
     {
-        List<MachineState> nextStates = new ArrayList<MachineState>();
-        for (List<Move> move : getLegalJointMoves(state)) {
-            nextStates.add(getNextState(state, move));
+        int[][] legals = new int[getRoles().size()][];
+        for (int r = 0; r < legals.length; r++) {
+            legals[r] = getLegalMoveIndices(state, r);
         }
+        return new JointMoveIterator(legals);
+    }
 
-        return nextStates;
+    // As above, but only the joint moves in which role "roleIndex" plays "moveIndex".
+    public JointMoveIterator getLegalJointMoveIterator(MachineState state, int roleIndex, int moveIndex) throws MoveDefinitionException
+    {
+        int[][] legals = new int[getRoles().size()][];
+        for (int r = 0; r < legals.length; r++) {
+            legals[r] = (r == roleIndex) ? new int[] {moveIndex} : getLegalMoveIndices(state, r);
+        }
+        return new JointMoveIterator(legals);
+    }
+
+    // Returns a copy of every legal joint move of "state", e.g. for getNextStates(state, jointMoves).
+    public List<int[]> getLegalJointMoveIndices(MachineState state) throws MoveDefinitionException
+    {
+        JointMoveIterator jointMoves = getLegalJointMoveIterator(state);
+        List<int[]> copies = new ArrayList<int[]>(jointMoves.size());
+        while (jointMoves.hasNext()) {
+            copies.add(jointMoves.next().clone());
+        }
+        return copies;
+    }
+
+    public List<MachineState> getNextStates(MachineState state) throws MoveDefinitionException, TransitionDefinitionException
+    {
+        return getNextStates(state, getLegalJointMoveIndices(state));
     }
 
     public Map<Move, List<MachineState>> getNextStates(MachineState state, Role role) throws MoveDefinitionException, TransitionDefinitionException
     {
         Map<Move, List<MachineState>> nextStates = new HashMap<Move, List<MachineState>>();
-        Map<Role, Integer> roleIndices = getRoleIndices();
-        for (List<Move> moves : getLegalJointMoves(state)) {
-            Move move = moves.get(roleIndices.get(role));
+        int roleIndex = getRoleIndices().get(role);
+        JointMoveIterator jointMoves = getLegalJointMoveIterator(state);
+        while (jointMoves.hasNext()) {
+            int[] jointMove = jointMoves.next();
+            Move move = getMove(roleIndex, jointMove[roleIndex]);
             if (!nextStates.containsKey(move)) {
                 nextStates.put(move, new ArrayList<MachineState>());
             }
-            nextStates.get(move).add(getNextState(state, moves));
+            nextStates.get(move).add(getNextState(state, jointMove));
         }
 
         return nextStates;
@@ -185,14 +332,23 @@ public abstract class StateMachine
         return theGoals;
     }
 
+    // Used when the caller doesn't supply a Random; java.util.Random is thread-safe.
+    private final Random sharedRandom = new Random();
+
     public List<Move> getRandomJointMove(MachineState state) throws MoveDefinitionException
     {
-        List<Move> random = new ArrayList<Move>();
-        for (Role role : getRoles()) {
-            random.add(getRandomMove(state, role));
+        return getRandomJointMove(state, sharedRandom);
+    }
+
+    public List<Move> getRandomJointMove(MachineState state, Random random) throws MoveDefinitionException
+    {
+        List<Role> roles = getRoles();
+        List<Move> joint = new ArrayList<Move>(roles.size());
+        for (Role role : roles) {
+            joint.add(getRandomMove(state, role, random));
         }
 
-        return random;
+        return joint;
     }
 
     public List<Move> getRandomJointMove(MachineState state, Role role, Move move) throws MoveDefinitionException
@@ -210,9 +366,14 @@ public abstract class StateMachine
     }
 
     public Move getRandomMove(MachineState state, Role role) throws MoveDefinitionException
+    {
+        return getRandomMove(state, role, sharedRandom);
+    }
+
+    public Move getRandomMove(MachineState state, Role role, Random random) throws MoveDefinitionException
     {
         List<Move> legals = getLegalMoves(state, role);
-        return legals.get(new Random().nextInt(legals.size()));
+        return legals.get(random.nextInt(legals.size()));
     }
 
     public MachineState getRandomNextState(MachineState state) throws MoveDefinitionException, TransitionDefinitionException
@@ -228,6 +389,7 @@ public abstract class StateMachine
     }
     
     public MachineState performDepthCharge(MachineState state, final int[] theDepth) throws TransitionDefinitionException, MoveDefinitionException {  
+        state = state.clone();
         int nDepth = 0;
         while(!isTerminal(state)) {
             nDepth++;
@@ -238,15 +400,61 @@ public abstract class StateMachine
         return state;
     }
     
+    /**
+     * Performs theDepths.length independent random depth charges from state.
+     * On return, theDepths[i] holds the number of moves made in charge i and
+     * theGoals[i][j] the goal of role j in the terminal state it reached.
+     * 
+     * The default implementation runs the charges one at a time, and stops
+     * a charge early once getLatchedGoals() settles its goals, in which case
+     * its depth only counts the moves up to that point, not to the end of
+     * the game. Machines that can run several charges at once should
+     * override it.
+     */
+    public void performDepthCharges(MachineState state, int[] theDepths, int[][] theGoals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        for (int i = 0; i < theDepths.length; i++) {
+            theDepths[i] = performDepthCharge(state, sharedRandom, theGoals[i]);
+        }
+    }
+
+    /**
+     * Performs a random depth charge from state, drawing every move from the
+     * given random number generator, and stores in theGoals (one entry per
+     * role, supplied by the caller so it can be reused) the goal of every
+     * role in the state it ends in. Returns the number of moves made.
+     * 
+     * Like performDepthCharges(), the charge stops early once
+     * getLatchedGoals() settles the goals. The default implementation goes
+     * through getNextStateDestructively() and allocates moves and states on
+     * every ply; machines that can play out a game on internal buffers, in
+     * terms of move indices, should override it so that rollouts produce no
+     * garbage.
+     */
+    public int performDepthCharge(MachineState state, Random random, int[] theGoals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        List<Role> roles = getRoles();
+        MachineState current = state.clone();
+        int nDepth = 0;
+        List<Integer> latchedGoals;
+        while((latchedGoals = getLatchedGoals(current)) == null && !isTerminal(current)) {
+            nDepth++;
+            current = getNextStateDestructively(current, getRandomJointMove(current, random));
+        }
+        for (int j = 0; j < roles.size(); j++) {
+            theGoals[j] = (latchedGoals != null) ? latchedGoals.get(j) : getGoal(current, roles.get(j));
+        }
+        return nDepth;
+    }
+
     public void getAverageDiscountedScoresFromRepeatedDepthCharges(final MachineState state, final double[] avgScores, final double[] avgDepth, final double discountFactor, final int repetitions) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {    	
     	avgDepth[0] = 0;
     	for (int j = 0; j < avgScores.length; j++) {
     		avgScores[j] = 0;
     	}
+    	// The discount depends on the real length of each game, so these
+    	// charges play out to the end rather than stop at latched goals.
     	final int[] depth = new int[1];
     	for (int i = 0; i < repetitions; i++) {
-    		MachineState stateForCharge = state.clone();
-    		stateForCharge = performDepthCharge(stateForCharge, depth);
+    		MachineState stateForCharge = performDepthCharge(state, depth);
     		avgDepth[0] += depth[0];
     		final double accumulatedDiscountFactor = Math.pow(discountFactor, depth[0]);
     		for (int j = 0; j < avgScores.length; j++) {
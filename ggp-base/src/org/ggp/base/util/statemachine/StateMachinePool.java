@@ -0,0 +1,61 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * StateMachinePool hands out state machines for worker threads, so that a
+ * gamer can search or simulate in parallel without sharing a machine that
+ * isn't thread-safe and without initializing one machine per thread. New
+ * machines are made with {@link StateMachine#copy()} of an initialized
+ * prototype, so they share its rules and compiled artifacts.
+ *
+ * A thread checks a machine out, uses it on its own, and checks it back in
+ * for the next thread. The pool is safe to use from any thread.
+ */
+public final class StateMachinePool
+{
+    private final StateMachine prototype;
+    private final ConcurrentLinkedQueue<StateMachine> idle;
+
+    /**
+     * Creates a pool of copies of the given machine, which must already be
+     * initialized and must support {@link StateMachine#copy()}.
+     */
+    public StateMachinePool(StateMachine prototype)
+    {
+        this.prototype = prototype;
+        this.idle = new ConcurrentLinkedQueue<StateMachine>();
+    }
+
+    public StateMachine getPrototype()
+    {
+        return prototype;
+    }
+
+    /**
+     * Returns a machine that no other thread is using, copying the prototype
+     * if none is idle.
+     *
+     * @throws UnsupportedOperationException
+     *             If the prototype can't be copied.
+     */
+    public StateMachine checkOut()
+    {
+        StateMachine machine = idle.poll();
+        if (machine == null) {
+            machine = prototype.copy();
+            if (machine == null)
+                throw new UnsupportedOperationException(prototype.getName() + " can't be copied");
+        }
+        return machine;
+    }
+
+    /**
+     * Returns a machine from {@link #checkOut()} to the pool. The calling
+     * thread must not use it afterwards.
+     */
+    public void checkIn(StateMachine machine)
+    {
+        idle.add(machine);
+    }
+}
@@ -0,0 +1,50 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+/**
+ * ZobristKeys assigns every sentence a random 64-bit key, the same for the
+ * whole run. The Zobrist key of a state is the XOR of the keys of its
+ * sentences, so it can be updated move by move from the sentences that
+ * changed, and two states with different keys are certainly different.
+ */
+public final class ZobristKeys
+{
+    private static final ConcurrentMap<GdlSentence, Long> keys = new ConcurrentHashMap<GdlSentence, Long>();
+    private static final Random random = new Random();
+
+    private ZobristKeys()
+    {
+    }
+
+    public static long getKey(GdlSentence sentence)
+    {
+        Long key = keys.get(sentence);
+        if (key == null) {
+            long newKey;
+            synchronized (random) {
+                newKey = random.nextLong();
+            }
+            key = keys.putIfAbsent(sentence, newKey);
+            if (key == null)
+                key = newKey;
+        }
+        return key;
+    }
+
+    /**
+     * Returns the Zobrist key of a state with the given contents.
+     */
+    public static long getKey(Set<GdlSentence> contents)
+    {
+        long key = 0;
+        for (GdlSentence sentence : contents)
+            key ^= getKey(sentence);
+        return key;
+    }
+}
@@ -0,0 +1,213 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * BoundedCache is a thread-safe cache whose contents are bounded by a total
+ * weight rather than by time. Every value is put with a weight, an estimate
+ * of what it keeps alive, and once the weights add up to more than the bound
+ * the cache evicts entries that haven't been read recently.
+ *
+ * Lookups don't lock: the entries live in a ConcurrentHashMap, and a hit only
+ * marks its entry as referenced. Eviction uses the CLOCK algorithm, on rings
+ * that are striped by key hash so that threads inserting different keys
+ * rarely contend. Each stripe gets an equal share of the bound.
+ *
+ * A value put for a key that is already cached is dropped, since the caches
+ * of a state machine only ever hold deterministic results.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public final class BoundedCache<K, V>
+{
+	private static final class Node<K, V>
+	{
+		public final K key;
+		public final V value;
+		public final int weight;
+		/** Set on every hit, cleared when the clock hand passes */
+		public volatile boolean referenced;
+		/** The neighbours on the ring, guarded by the stripe */
+		public Node<K, V> previous, next;
+
+		public Node(K key, V value, int weight)
+		{
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * One ring of the clock, guarded by its own monitor.
+	 */
+	private static final class Stripe<K, V>
+	{
+		private final ConcurrentMap<K, Node<K, V>> map;
+		private final long maxWeight;
+		/** The next node the clock hand looks at, or null if the ring is empty */
+		private Node<K, V> hand;
+		private long weight;
+
+		public Stripe(ConcurrentMap<K, Node<K, V>> map, long maxWeight)
+		{
+			this.map = map;
+			this.maxWeight = maxWeight;
+		}
+
+		/**
+		 * Links a node that was just put in the map into the ring, just
+		 * behind the hand, and evicts until the stripe is within its bound.
+		 */
+		public synchronized void add(Node<K, V> node)
+		{
+			if (hand == null) {
+				node.previous = node;
+				node.next = node;
+				hand = node;
+			} else {
+				node.previous = hand.previous;
+				node.next = hand;
+				hand.previous.next = node;
+				hand.previous = node;
+			}
+			weight += node.weight;
+			while (weight > maxWeight && hand != null)
+				evictOne();
+		}
+
+		/**
+		 * Advances the hand, giving every referenced node a second chance,
+		 * and evicts the first node that isn't referenced.
+		 */
+		private void evictOne()
+		{
+			while (hand.referenced) {
+				hand.referenced = false;
+				hand = hand.next;
+			}
+			Node<K, V> victim = hand;
+			if (victim.next == victim) {
+				hand = null;
+			} else {
+				victim.previous.next = victim.next;
+				victim.next.previous = victim.previous;
+				hand = victim.next;
+			}
+			victim.previous = null;
+			victim.next = null;
+			weight -= victim.weight;
+			map.remove(victim.key, victim);
+		}
+
+		public synchronized void clear()
+		{
+			hand = null;
+			weight = 0;
+		}
+
+		public synchronized long getWeight()
+		{
+			return weight;
+		}
+	}
+
+	private final ConcurrentMap<K, Node<K, V>> map;
+	private final Stripe<K, V>[] stripes;
+	private final long maxWeight;
+
+	/**
+	 * Creates a cache holding entries of at most the given total weight,
+	 * with one stripe for every few threads that may use it.
+	 */
+	public BoundedCache(long maxWeight)
+	{
+		this(maxWeight, 4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	@SuppressWarnings("unchecked")
+	public BoundedCache(long maxWeight, int concurrency)
+	{
+		int numStripes = 1;
+		while (numStripes < concurrency)
+			numStripes <<= 1;
+		this.maxWeight = maxWeight;
+		this.map = new ConcurrentHashMap<K, Node<K, V>>(16, 0.75f, numStripes);
+		this.stripes = (Stripe<K, V>[]) new Stripe<?, ?>[numStripes];
+		for (int i = 0; i < numStripes; i++)
+			stripes[i] = new Stripe<K, V>(map, Math.max(1, maxWeight / numStripes));
+	}
+
+	/**
+	 * Returns the value cached for the key, or null if there is none.
+	 */
+	public V get(K key)
+	{
+		Node<K, V> node = map.get(key);
+		if (node == null)
+			return null;
+		node.referenced = true;
+		return node.value;
+	}
+
+	/**
+	 * Caches the value for the key, unless one is already cached, possibly
+	 * evicting other entries.
+	 *
+	 * @param weight
+	 *            The weight of the entry, at least 1.
+	 */
+	public void put(K key, V value, int weight)
+	{
+		Node<K, V> node = new Node<K, V>(key, value, weight);
+		Node<K, V> cached = map.putIfAbsent(key, node);
+		if (cached != null) {
+			cached.referenced = true;
+			return;
+		}
+		stripes[stripeIndex(key)].add(node);
+	}
+
+	private int stripeIndex(Object key)
+	{
+		// Spread the hash so that states differing in high bits don't share
+		// a stripe.
+		int h = key.hashCode();
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return h & (stripes.length - 1);
+	}
+
+	/**
+	 * Drops every entry. Entries put concurrently with the call may survive.
+	 */
+	public void clear()
+	{
+		for (Stripe<K, V> stripe : stripes)
+			stripe.clear();
+		map.clear();
+	}
+
+	public int size()
+	{
+		return map.size();
+	}
+
+	/**
+	 * Returns the total weight of the cached entries.
+	 */
+	public long getWeight()
+	{
+		long weight = 0;
+		for (Stripe<K, V> stripe : stripes)
+			weight += stripe.getWeight();
+		return weight;
+	}
+
+	public long getMaxWeight()
+	{
+		return maxWeight;
+	}
+}
@@ -0,0 +1,211 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.ggp.base.util.logging.GamerLogger;
+
+/**
+ * CacheStatistics counts, for each operation of a caching state machine, the
+ * hits and misses of its cache and the time spent in the backing machine on
+ * misses, with a histogram of those latencies. It tells whether a cache pays
+ * off in a given game, and how big it should be.
+ *
+ * The counters are safe to update from any thread. They can be read through
+ * JMX once {@link #register(String)} is called, and the caching machines log
+ * what happened during each move to the GamerLogger.
+ */
+public final class CacheStatistics implements CacheStatisticsMBean
+{
+	/** The operations a caching machine answers from its cache */
+	public enum Operation
+	{
+		GOAL, LEGAL, NEXT, TERMINAL
+	}
+
+	/** The number of latency buckets, the last one open-ended */
+	private static final int NUM_BUCKETS = 24;
+
+	private static final Operation[] OPERATIONS = Operation.values();
+
+	/** Tells apart the statistics of machines that have the same name */
+	private static final AtomicLong nextId = new AtomicLong();
+
+	private final long id = nextId.getAndIncrement();
+	/** The name these statistics are registered under, if any */
+	private ObjectName objectName;
+
+	private final AtomicLongArray hits;
+	private final AtomicLongArray misses;
+	private final AtomicLongArray backingNanos;
+	/** The latency buckets of each operation, one row after the other */
+	private final AtomicLongArray latencies;
+	private volatile long entries;
+	/** The counters as of the previous move, to log what changed since */
+	private final long[] previousHits, previousMisses, previousNanos;
+
+	public CacheStatistics()
+	{
+		hits = new AtomicLongArray(OPERATIONS.length);
+		misses = new AtomicLongArray(OPERATIONS.length);
+		backingNanos = new AtomicLongArray(OPERATIONS.length);
+		latencies = new AtomicLongArray(OPERATIONS.length * NUM_BUCKETS);
+		previousHits = new long[OPERATIONS.length];
+		previousMisses = new long[OPERATIONS.length];
+		previousNanos = new long[OPERATIONS.length];
+	}
+
+	public void recordHit(Operation operation)
+	{
+		hits.incrementAndGet(operation.ordinal());
+	}
+
+	/**
+	 * Records a miss that the backing machine answered in the given time.
+	 */
+	public void recordMiss(Operation operation, long nanos)
+	{
+		int o = operation.ordinal();
+		misses.incrementAndGet(o);
+		backingNanos.addAndGet(o, nanos);
+		long micros = nanos / 1000;
+		int bucket = (micros == 0) ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+		latencies.incrementAndGet(o * NUM_BUCKETS + Math.min(bucket, NUM_BUCKETS - 1));
+	}
+
+	public void setEntries(long entries)
+	{
+		this.entries = entries;
+	}
+
+	public String[] getOperationNames()
+	{
+		String[] names = new String[OPERATIONS.length];
+		for (int o = 0; o < names.length; o++)
+			names[o] = OPERATIONS[o].name();
+		return names;
+	}
+
+	public long[] getHits()
+	{
+		return toArray(hits);
+	}
+
+	public long[] getMisses()
+	{
+		return toArray(misses);
+	}
+
+	public long[] getBackingNanos()
+	{
+		return toArray(backingNanos);
+	}
+
+	public long getEntries()
+	{
+		return entries;
+	}
+
+	public long[] getLatencyHistogram(String operationName)
+	{
+		int o = Operation.valueOf(operationName).ordinal();
+		long[] histogram = new long[NUM_BUCKETS];
+		for (int i = 0; i < NUM_BUCKETS; i++)
+			histogram[i] = latencies.get(o * NUM_BUCKETS + i);
+		return histogram;
+	}
+
+	public synchronized void reset()
+	{
+		for (int o = 0; o < OPERATIONS.length; o++)
+		{
+			hits.set(o, 0);
+			misses.set(o, 0);
+			backingNanos.set(o, 0);
+			previousHits[o] = 0;
+			previousMisses[o] = 0;
+			previousNanos[o] = 0;
+		}
+		for (int i = 0; i < latencies.length(); i++)
+			latencies.set(i, 0);
+	}
+
+	private static long[] toArray(AtomicLongArray counters)
+	{
+		long[] array = new long[counters.length()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = counters.get(i);
+		return array;
+	}
+
+	/**
+	 * Logs the hits, misses and backing time of each operation since the
+	 * previous call, and the number of entries.
+	 */
+	public synchronized void logMove(String machineName)
+	{
+		StringBuilder message = new StringBuilder();
+		message.append(machineName).append(" cache, ").append(entries).append(" entries:");
+		for (int o = 0; o < OPERATIONS.length; o++)
+		{
+			long moveHits = hits.get(o) - previousHits[o];
+			long moveMisses = misses.get(o) - previousMisses[o];
+			long moveNanos = backingNanos.get(o) - previousNanos[o];
+			previousHits[o] += moveHits;
+			previousMisses[o] += moveMisses;
+			previousNanos[o] += moveNanos;
+			message.append(' ').append(OPERATIONS[o].name().toLowerCase()).append(' ')
+					.append(moveHits).append('/').append(moveHits + moveMisses).append(" hits, ")
+					.append(moveNanos / 1000000).append(" ms;");
+		}
+		GamerLogger.log("StateMachine", message.toString());
+	}
+
+	/**
+	 * Exposes these statistics through the platform MBean server under the
+	 * given name and an id of their own, so that machines with the same name
+	 * don't replace each other's statistics. Registering again replaces only
+	 * the earlier registration of these statistics.
+	 */
+	public synchronized void register(String name)
+	{
+		unregister();
+		try
+		{
+			ObjectName newName = new ObjectName(CacheStatistics.class.getPackage().getName() + ":type=CacheStatistics,name=" + ObjectName.quote(name) + ",id=" + id);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+			objectName = newName;
+		}
+		catch (JMException e)
+		{
+			// Losing the statistics is no reason to stop playing.
+			GamerLogger.logStackTrace("StateMachine", e);
+		}
+	}
+
+	/**
+	 * Removes these statistics from the platform MBean server, if they were
+	 * registered.
+	 */
+	public synchronized void unregister()
+	{
+		if (objectName == null)
+			return;
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+		}
+		catch (JMException e)
+		{
+			GamerLogger.logStackTrace("StateMachine", e);
+		}
+		objectName = null;
+	}
+}
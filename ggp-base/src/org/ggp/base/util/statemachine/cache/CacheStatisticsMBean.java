@@ -0,0 +1,33 @@
+package org.ggp.base.util.statemachine.cache;
+
+/**
+ * The management interface of {@link CacheStatistics}, as seen through JMX.
+ * Arrays are indexed like {@link #getOperationNames()}.
+ */
+public interface CacheStatisticsMBean
+{
+	public String[] getOperationNames();
+
+	public long[] getHits();
+
+	public long[] getMisses();
+
+	/**
+	 * Returns the total time each operation spent in the backing machine,
+	 * in nanoseconds.
+	 */
+	public long[] getBackingNanos();
+
+	/**
+	 * Returns the number of cached entries as of the last move.
+	 */
+	public long getEntries();
+
+	/**
+	 * Returns how many calls of the operation to the backing machine took
+	 * between 2^i and 2^(i+1) microseconds, for each i.
+	 */
+	public long[] getLatencyHistogram(String operationName);
+
+	public void reset();
+}
@@ -1,8 +1,10 @@
 package org.ggp.base.util.statemachine.cache;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.statemachine.StateMachine;
@@ -17,11 +19,13 @@ public final class CachedStateMachine extends StateMachine
 {
 	private final StateMachine backingStateMachine;
 	private final TtlCache<MachineState, Entry> ttlCache;	
+	private final CacheStatistics statistics;
 
 	private final class Entry
 	{
 		public Map<Role, Integer> goals;
 		public Map<Role, List<Move>> moves;
+		public Map<Integer, int[]> moveIndices;
 		public Map<List<Move>, MachineState> nexts;
 		public Boolean terminal;
 
@@ -29,6 +33,7 @@ public final class CachedStateMachine extends StateMachine
 		{
 			goals = new HashMap<Role, Integer>();
 			moves = new HashMap<Role, List<Move>>();
+			moveIndices = new HashMap<Integer, int[]>();
 			nexts = new HashMap<List<Move>, MachineState>();
 			terminal = null;
 		}
@@ -38,6 +43,15 @@ public final class CachedStateMachine extends StateMachine
 	{
 		this.backingStateMachine = backingStateMachine;
 		ttlCache = new TtlCache<MachineState, Entry>(1);
+		statistics = new CacheStatistics();
+	}
+
+	/**
+	 * Returns the hits, misses and backing machine latencies of the cache.
+	 */
+	public CacheStatistics getStatistics()
+	{
+		return statistics;
 	}
 
 	private Entry getEntry(MachineState state)
@@ -58,7 +72,13 @@ public final class CachedStateMachine extends StateMachine
 		{
 			if (!entry.goals.containsKey(role))
 			{
+				long start = System.nanoTime();
 				entry.goals.put(role, backingStateMachine.getGoal(state, role));
+				statistics.recordMiss(CacheStatistics.Operation.GOAL, System.nanoTime() - start);
+			}
+			else
+			{
+				statistics.recordHit(CacheStatistics.Operation.GOAL);
 			}
 
 			return entry.goals.get(role);
@@ -73,7 +93,13 @@ public final class CachedStateMachine extends StateMachine
 		{
 			if (!entry.moves.containsKey(role))
 			{
+				long start = System.nanoTime();
 				entry.moves.put(role, backingStateMachine.getLegalMoves(state, role));
+				statistics.recordMiss(CacheStatistics.Operation.LEGAL, System.nanoTime() - start);
+			}
+			else
+			{
+				statistics.recordHit(CacheStatistics.Operation.LEGAL);
 			}
 
 			return entry.moves.get(role);
@@ -88,13 +114,111 @@ public final class CachedStateMachine extends StateMachine
 		{
 			if (!entry.nexts.containsKey(moves))
 			{
+				long start = System.nanoTime();
 				entry.nexts.put(moves, backingStateMachine.getNextState(state, moves));
+				statistics.recordMiss(CacheStatistics.Operation.NEXT, System.nanoTime() - start);
+			}
+			else
+			{
+				statistics.recordHit(CacheStatistics.Operation.NEXT);
 			}
 
 			return entry.nexts.get(moves);
 		}
 	}
 
+	@Override
+	public int[] getLegalMoveIndices(MachineState state, int roleIndex) throws MoveDefinitionException
+	{
+		Entry entry = getEntry(state);
+		synchronized (entry)
+		{
+			if (!entry.moveIndices.containsKey(roleIndex))
+			{
+				long start = System.nanoTime();
+				entry.moveIndices.put(roleIndex, backingStateMachine.getLegalMoveIndices(state, roleIndex));
+				statistics.recordMiss(CacheStatistics.Operation.LEGAL, System.nanoTime() - start);
+			}
+			else
+			{
+				statistics.recordHit(CacheStatistics.Operation.LEGAL);
+			}
+
+			return entry.moveIndices.get(roleIndex).clone();
+		}
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, int[] jointMove) throws TransitionDefinitionException
+	{
+		return getNextState(state, toMoves(jointMove));
+	}
+
+	/**
+	 * Answers the cached transitions and hands the others to the backing
+	 * machine as one batch.
+	 */
+	@Override
+	public List<MachineState> getNextStates(MachineState state, List<int[]> jointMoves) throws TransitionDefinitionException
+	{
+		Entry entry = getEntry(state);
+		synchronized (entry)
+		{
+			List<int[]> missedMoves = new ArrayList<int[]>();
+			for (int[] jointMove : jointMoves)
+			{
+				if (!entry.nexts.containsKey(toMoves(jointMove)))
+				{
+					missedMoves.add(jointMove);
+				}
+				else
+				{
+					statistics.recordHit(CacheStatistics.Operation.NEXT);
+				}
+			}
+			if (!missedMoves.isEmpty())
+			{
+				long start = System.nanoTime();
+				List<MachineState> missedStates = backingStateMachine.getNextStates(state, missedMoves);
+				long nanosPerMiss = (System.nanoTime() - start) / missedMoves.size();
+				for (int i = 0; i < missedMoves.size(); i++)
+				{
+					statistics.recordMiss(CacheStatistics.Operation.NEXT, nanosPerMiss);
+					entry.nexts.put(toMoves(missedMoves.get(i)), missedStates.get(i));
+				}
+			}
+
+			List<MachineState> nextStates = new ArrayList<MachineState>(jointMoves.size());
+			for (int[] jointMove : jointMoves)
+			{
+				nextStates.add(entry.nexts.get(toMoves(jointMove)));
+			}
+			return nextStates;
+		}
+	}
+
+	private List<Move> toMoves(int[] jointMove)
+	{
+		List<Move> moves = new ArrayList<Move>(jointMove.length);
+		for (int r = 0; r < jointMove.length; r++)
+		{
+			moves.add(backingStateMachine.getMove(r, jointMove[r]));
+		}
+		return moves;
+	}
+
+	@Override
+	public Move getMove(int roleIndex, int moveIndex)
+	{
+		return backingStateMachine.getMove(roleIndex, moveIndex);
+	}
+
+	@Override
+	public int getMoveIndex(int roleIndex, Move move)
+	{
+		return backingStateMachine.getMoveIndex(roleIndex, move);
+	}
+
 	@Override
 	public boolean isTerminal(MachineState state)
 	{
@@ -103,16 +227,59 @@ public final class CachedStateMachine extends StateMachine
 		{
 			if (entry.terminal == null)
 			{
+				long start = System.nanoTime();
 				entry.terminal = backingStateMachine.isTerminal(state);
+				statistics.recordMiss(CacheStatistics.Operation.TERMINAL, System.nanoTime() - start);
+			}
+			else
+			{
+				statistics.recordHit(CacheStatistics.Operation.TERMINAL);
 			}
 
 			return entry.terminal;
 		}
 	}
 	
+	@Override
+	public void performDepthCharges(MachineState state, int[] theDepths, int[][] theGoals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		// Rollout states are rarely revisited, so don't fill the cache with them.
+		backingStateMachine.performDepthCharges(state, theDepths, theGoals);
+	}
+
+	@Override
+	public int performDepthCharge(MachineState state, Random random, int[] theGoals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		return backingStateMachine.performDepthCharge(state, random, theGoals);
+	}
+
+	@Override
+	public List<Integer> getLatchedGoals(MachineState state)
+	{
+		return backingStateMachine.getLatchedGoals(state);
+	}
+
+	/**
+	 * The copy wraps a copy of the backing machine, with a cache of its own.
+	 */
+	@Override
+	public StateMachine copy()
+	{
+		StateMachine backingCopy = backingStateMachine.copy();
+		return (backingCopy != null) ? new CachedStateMachine(backingCopy) : null;
+	}
+
+	@Override
+	public void updateRoot(MachineState theState)
+	{
+		backingStateMachine.updateRoot(theState);
+	}
+
 	@Override
 	public void doPerMoveWork()
 	{
+		statistics.setEntries(ttlCache.size());
+		statistics.logMove(getName());
 		prune();
 	}
 
@@ -121,9 +288,21 @@ public final class CachedStateMachine extends StateMachine
 		ttlCache.prune();
 	}
 
+	/**
+	 * Initializes the backing machine and starts the statistics over for the
+	 * new game, under the name of the new backing machine.
+	 */
 	@Override
 	public void initialize(List<Gdl> description) {
 		backingStateMachine.initialize(description);		
+		statistics.unregister();
+		statistics.reset();
+		statistics.register(getName());
+	}
+
+	@Override
+	public String getName() {
+		return super.getName() + "(" + backingStateMachine.getName() + ")";
 	}
 
 	@Override
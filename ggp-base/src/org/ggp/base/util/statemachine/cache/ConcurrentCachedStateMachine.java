@@ -0,0 +1,468 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * ConcurrentCachedStateMachine is a drop-in replacement for
+ * {@link CachedStateMachine} for machines that are used from several threads
+ * at once. Instead of one map of per-state entries behind a single lock, it
+ * keeps a {@link BoundedCache} per operation: one for terminality, one per
+ * role for goals and for legal moves, and one for next states. Lookups don't
+ * lock, and the caches together never hold more than a fixed weight, so
+ * nothing has to be pruned per move.
+ *
+ * The machine answers the integer-indexed calls from the same caches and
+ * passes the move indices of the backing machine through. The caches hold
+ * moves rather than move indices, translating through the backing machine
+ * on each call, so they stay valid for machines that number moves their own
+ * way. A batch of next states goes to the backing machine as one batch of
+ * the transitions that missed.
+ *
+ * A weight counts the objects an entry keeps alive: the result itself, plus
+ * each move in a legal move list or a joint move key. The bound is shared out
+ * among the operations, half of it to next states, a quarter to legal moves
+ * and an eighth each to goals and terminality.
+ *
+ * Copies of the machine share its caches, so that threads each working on
+ * their own copy still benefit from each other's results, and the
+ * {@link CacheStatistics} of those caches.
+ */
+public final class ConcurrentCachedStateMachine extends StateMachine
+{
+	/** The default bound on the total weight of the cached results */
+	public static final long DEFAULT_MAX_WEIGHT = 1L << 22;
+
+	private final StateMachine backingStateMachine;
+	private final long maxWeight;
+	/** The caches for the current game, created on first use */
+	private volatile Caches caches;
+
+	/**
+	 * The per-operation caches of one game.
+	 */
+	private static final class Caches
+	{
+		public final List<Role> roles;
+		public final BoundedCache<MachineState, Boolean> terminal;
+		/** The goal and legal move caches of each role, indexed by role */
+		public final BoundedCache<MachineState, Integer>[] goals;
+		public final BoundedCache<MachineState, List<Move>>[] legals;
+		public final BoundedCache<NextStateKey, MachineState> nexts;
+		public final CacheStatistics statistics;
+
+		@SuppressWarnings("unchecked")
+		public Caches(List<Role> roles, long maxWeight)
+		{
+			this.roles = roles;
+			int numRoles = Math.max(1, roles.size());
+			terminal = new BoundedCache<MachineState, Boolean>(maxWeight / 8);
+			goals = (BoundedCache<MachineState, Integer>[]) new BoundedCache<?, ?>[roles.size()];
+			legals = (BoundedCache<MachineState, List<Move>>[]) new BoundedCache<?, ?>[roles.size()];
+			for (int r = 0; r < roles.size(); r++)
+			{
+				goals[r] = new BoundedCache<MachineState, Integer>(maxWeight / 8 / numRoles);
+				legals[r] = new BoundedCache<MachineState, List<Move>>(maxWeight / 4 / numRoles);
+			}
+			nexts = new BoundedCache<NextStateKey, MachineState>(maxWeight / 2);
+			statistics = new CacheStatistics();
+		}
+
+		public long getEntries()
+		{
+			long entries = terminal.size() + nexts.size();
+			for (int r = 0; r < goals.length; r++)
+				entries += goals[r].size() + legals[r].size();
+			return entries;
+		}
+	}
+
+	/**
+	 * A state and a joint move made in it.
+	 */
+	private static final class NextStateKey
+	{
+		private final MachineState state;
+		private final Move[] moves;
+		private final int hash;
+
+		public NextStateKey(MachineState state, Move[] moves)
+		{
+			this.state = state;
+			this.moves = moves;
+			this.hash = 31 * state.hashCode() + Arrays.hashCode(moves);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof NextStateKey))
+				return false;
+			NextStateKey other = (NextStateKey) o;
+			return hash == other.hash && state.equals(other.state) && Arrays.equals(moves, other.moves);
+		}
+	}
+
+	public ConcurrentCachedStateMachine(StateMachine backingStateMachine)
+	{
+		this(backingStateMachine, DEFAULT_MAX_WEIGHT);
+	}
+
+	public ConcurrentCachedStateMachine(StateMachine backingStateMachine, long maxWeight)
+	{
+		this.backingStateMachine = backingStateMachine;
+		this.maxWeight = maxWeight;
+	}
+
+	private ConcurrentCachedStateMachine(StateMachine backingStateMachine, long maxWeight, Caches caches)
+	{
+		this(backingStateMachine, maxWeight);
+		this.caches = caches;
+	}
+
+	/**
+	 * Returns the caches, creating them if the backing machine was
+	 * initialized before it was wrapped.
+	 */
+	private Caches getCaches()
+	{
+		Caches current = caches;
+		if (current == null)
+		{
+			synchronized (this)
+			{
+				current = caches;
+				if (current == null)
+				{
+					current = new Caches(backingStateMachine.getRoles(), maxWeight);
+					caches = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	@Override
+	public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+	{
+		Caches current = getCaches();
+		int r = current.roles.indexOf(role);
+		if (r == -1)
+			return backingStateMachine.getGoal(state, role);
+		Integer goal = current.goals[r].get(state);
+		if (goal == null)
+		{
+			long start = System.nanoTime();
+			goal = backingStateMachine.getGoal(state, role);
+			current.statistics.recordMiss(CacheStatistics.Operation.GOAL, System.nanoTime() - start);
+			current.goals[r].put(state, goal, 1);
+		}
+		else
+		{
+			current.statistics.recordHit(CacheStatistics.Operation.GOAL);
+		}
+		return goal;
+	}
+
+	@Override
+	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+	{
+		Caches current = getCaches();
+		int r = current.roles.indexOf(role);
+		if (r == -1)
+			return backingStateMachine.getLegalMoves(state, role);
+		List<Move> moves = current.legals[r].get(state);
+		if (moves == null)
+		{
+			long start = System.nanoTime();
+			moves = backingStateMachine.getLegalMoves(state, role);
+			current.statistics.recordMiss(CacheStatistics.Operation.LEGAL, System.nanoTime() - start);
+			current.legals[r].put(state, moves, 1 + moves.size());
+		}
+		else
+		{
+			current.statistics.recordHit(CacheStatistics.Operation.LEGAL);
+		}
+		return moves;
+	}
+
+	@Override
+	public int[] getLegalMoveIndices(MachineState state, int roleIndex) throws MoveDefinitionException
+	{
+		Caches current = getCaches();
+		List<Move> moves = current.legals[roleIndex].get(state);
+		if (moves == null)
+		{
+			long start = System.nanoTime();
+			int[] indices = backingStateMachine.getLegalMoveIndices(state, roleIndex);
+			current.statistics.recordMiss(CacheStatistics.Operation.LEGAL, System.nanoTime() - start);
+			moves = new ArrayList<Move>(indices.length);
+			for (int index : indices)
+				moves.add(backingStateMachine.getMove(roleIndex, index));
+			current.legals[roleIndex].put(state, Collections.unmodifiableList(moves), 1 + indices.length);
+			return indices;
+		}
+		current.statistics.recordHit(CacheStatistics.Operation.LEGAL);
+		int[] indices = new int[moves.size()];
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = backingStateMachine.getMoveIndex(roleIndex, moves.get(i));
+		return indices;
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+	{
+		Caches current = getCaches();
+		NextStateKey key = new NextStateKey(state, moves.toArray(new Move[moves.size()]));
+		MachineState next = current.nexts.get(key);
+		if (next == null)
+		{
+			long start = System.nanoTime();
+			next = backingStateMachine.getNextState(state, moves);
+			current.statistics.recordMiss(CacheStatistics.Operation.NEXT, System.nanoTime() - start);
+			current.nexts.put(key, next, 1 + moves.size());
+		}
+		else
+		{
+			current.statistics.recordHit(CacheStatistics.Operation.NEXT);
+		}
+		return next;
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, int[] jointMove) throws TransitionDefinitionException
+	{
+		Caches current = getCaches();
+		NextStateKey key = new NextStateKey(state, toMoves(jointMove));
+		MachineState next = current.nexts.get(key);
+		if (next == null)
+		{
+			long start = System.nanoTime();
+			next = backingStateMachine.getNextState(state, jointMove);
+			current.statistics.recordMiss(CacheStatistics.Operation.NEXT, System.nanoTime() - start);
+			current.nexts.put(key, next, 1 + jointMove.length);
+		}
+		else
+		{
+			current.statistics.recordHit(CacheStatistics.Operation.NEXT);
+		}
+		return next;
+	}
+
+	private Move[] toMoves(int[] jointMove)
+	{
+		Move[] moves = new Move[jointMove.length];
+		for (int r = 0; r < jointMove.length; r++)
+			moves[r] = backingStateMachine.getMove(r, jointMove[r]);
+		return moves;
+	}
+
+	/**
+	 * Answers the cached transitions and hands the others to the backing
+	 * machine as one batch.
+	 */
+	@Override
+	public List<MachineState> getNextStates(MachineState state, List<int[]> jointMoves) throws TransitionDefinitionException
+	{
+		Caches current = getCaches();
+		List<MachineState> nextStates = new ArrayList<MachineState>(jointMoves.size());
+		List<NextStateKey> missedKeys = new ArrayList<NextStateKey>();
+		List<int[]> missedMoves = new ArrayList<int[]>();
+		List<Integer> missedPositions = new ArrayList<Integer>();
+		for (int[] jointMove : jointMoves)
+		{
+			NextStateKey key = new NextStateKey(state, toMoves(jointMove));
+			MachineState next = current.nexts.get(key);
+			if (next == null)
+			{
+				missedKeys.add(key);
+				missedMoves.add(jointMove);
+				missedPositions.add(nextStates.size());
+			}
+			else
+			{
+				current.statistics.recordHit(CacheStatistics.Operation.NEXT);
+			}
+			nextStates.add(next);
+		}
+		if (!missedMoves.isEmpty())
+		{
+			long start = System.nanoTime();
+			List<MachineState> missedStates = backingStateMachine.getNextStates(state, missedMoves);
+			long nanosPerMiss = (System.nanoTime() - start) / missedMoves.size();
+			for (int i = 0; i < missedMoves.size(); i++)
+			{
+				current.statistics.recordMiss(CacheStatistics.Operation.NEXT, nanosPerMiss);
+				MachineState next = missedStates.get(i);
+				current.nexts.put(missedKeys.get(i), next, 1 + missedMoves.get(i).length);
+				nextStates.set(missedPositions.get(i), next);
+			}
+		}
+		return nextStates;
+	}
+
+	/**
+	 * Reads the goals of every role from the cache, or all of them from the
+	 * backing machine at once if any is missing.
+	 */
+	@Override
+	public void getGoals(MachineState state, int[] theGoals) throws GoalDefinitionException
+	{
+		Caches current = getCaches();
+		boolean cached = true;
+		for (int r = 0; r < current.goals.length && cached; r++)
+		{
+			Integer goal = current.goals[r].get(state);
+			if (goal == null)
+				cached = false;
+			else
+				theGoals[r] = goal;
+		}
+		if (cached)
+		{
+			current.statistics.recordHit(CacheStatistics.Operation.GOAL);
+			return;
+		}
+		long start = System.nanoTime();
+		backingStateMachine.getGoals(state, theGoals);
+		current.statistics.recordMiss(CacheStatistics.Operation.GOAL, System.nanoTime() - start);
+		for (int r = 0; r < current.goals.length; r++)
+			current.goals[r].put(state, theGoals[r], 1);
+	}
+
+	@Override
+	public Move getMove(int roleIndex, int moveIndex)
+	{
+		return backingStateMachine.getMove(roleIndex, moveIndex);
+	}
+
+	@Override
+	public int getMoveIndex(int roleIndex, Move move)
+	{
+		return backingStateMachine.getMoveIndex(roleIndex, move);
+	}
+
+	@Override
+	public boolean isTerminal(MachineState state)
+	{
+		Caches current = getCaches();
+		Boolean terminal = current.terminal.get(state);
+		if (terminal == null)
+		{
+			long start = System.nanoTime();
+			terminal = backingStateMachine.isTerminal(state);
+			current.statistics.recordMiss(CacheStatistics.Operation.TERMINAL, System.nanoTime() - start);
+			current.terminal.put(state, terminal, 1);
+		}
+		else
+		{
+			current.statistics.recordHit(CacheStatistics.Operation.TERMINAL);
+		}
+		return terminal;
+	}
+
+	@Override
+	public void performDepthCharges(MachineState state, int[] theDepths, int[][] theGoals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		// Rollout states are rarely revisited, so don't fill the cache with them.
+		backingStateMachine.performDepthCharges(state, theDepths, theGoals);
+	}
+
+	@Override
+	public int performDepthCharge(MachineState state, Random random, int[] theGoals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		return backingStateMachine.performDepthCharge(state, random, theGoals);
+	}
+
+	@Override
+	public List<Integer> getLatchedGoals(MachineState state)
+	{
+		return backingStateMachine.getLatchedGoals(state);
+	}
+
+	/**
+	 * The copy wraps a copy of the backing machine and shares the caches of
+	 * this one, which don't depend on how either backing machine numbers
+	 * moves.
+	 */
+	@Override
+	public StateMachine copy()
+	{
+		StateMachine backingCopy = backingStateMachine.copy();
+		return (backingCopy != null) ? new ConcurrentCachedStateMachine(backingCopy, maxWeight, getCaches()) : null;
+	}
+
+	@Override
+	public void updateRoot(MachineState theState)
+	{
+		backingStateMachine.updateRoot(theState);
+	}
+
+	/**
+	 * Returns the hits, misses and backing machine latencies of the caches
+	 * of the current game.
+	 */
+	public CacheStatistics getStatistics()
+	{
+		return getCaches().statistics;
+	}
+
+	@Override
+	public void doPerMoveWork()
+	{
+		Caches current = getCaches();
+		current.statistics.setEntries(current.getEntries());
+		current.statistics.logMove(getName());
+		backingStateMachine.doPerMoveWork();
+	}
+
+	/**
+	 * Initializes the backing machine and starts with empty caches; copies
+	 * made earlier keep the caches of the previous game.
+	 */
+	@Override
+	public void initialize(List<Gdl> description)
+	{
+		backingStateMachine.initialize(description);
+		if (caches != null)
+			caches.statistics.unregister();
+		caches = new Caches(backingStateMachine.getRoles(), maxWeight);
+		caches.statistics.register(getName());
+	}
+
+	@Override
+	public String getName()
+	{
+		return super.getName() + "(" + backingStateMachine.getName() + ")";
+	}
+
+	@Override
+	public List<Role> getRoles()
+	{
+		return backingStateMachine.getRoles();
+	}
+
+	@Override
+	public MachineState getInitialState()
+	{
+		return backingStateMachine.getInitialState();
+	}
+}
@@ -1,159 +1,267 @@
 package org.ggp.base.util.statemachine.cache;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
  * This is a generic implementation of a Time-To-Live cache
- * that maps keys of type K to values of type V. It's backed
- * by a hashmap, and whenever a pair (K,V) is accessed, their
- * TTL is reset to the starting TTL (which is the parameter
- * passed to the constructor). On the other hand, when the
- * method prune() is called, the TTL of all of the pairs in the
- * map is decremented, and pairs whose TTL has reached zero are
- * removed.
- * 
+ * that maps keys of type K to values of type V. Whenever a
+ * pair (K,V) is accessed, their TTL is reset to the starting
+ * TTL (which is the parameter passed to the constructor). On
+ * the other hand, when the method prune() is called, the TTL
+ * of all of the pairs in the map is decremented, and pairs
+ * whose TTL has already reached zero are removed.
+ *
+ * Rather than storing a TTL per entry, the cache keeps one
+ * hashmap per generation, for the last TTL + 1 calls to
+ * prune(). Accessing an entry moves it to the current
+ * generation, and prune() drops the oldest generation as a
+ * whole, so it takes constant time however many entries the
+ * cache holds.
+ *
  * While this class implements the Map interface, keep in mind
- * that it only decrements the TTL of an entry when that entry
- * is accessed directly.
+ * that only get() and put() reset the TTL of an entry; the
+ * views and the other queries leave it alone.
  *
  * @param <K> Key type
  * @param <V> Value type
  */
-public final class TtlCache<K, V> implements Map<K,V>
+public final class TtlCache<K, V> extends AbstractMap<K, V>
 {
-	private final class Entry
+	/** The entries of each generation, the current one at index current */
+	private final Map<K, V>[] generations;
+	private int current;
+	/** How long the last call to prune() took, in nanoseconds */
+	private long lastPruneNanos;
+
+	@SuppressWarnings("unchecked")
+	public TtlCache(int ttl)
 	{
-		public int ttl;
-		public V value;
+		this.generations = (Map<K, V>[]) new Map<?, ?>[ttl + 1];
+		for (int i = 0; i < generations.length; i++)
+			generations[i] = new HashMap<K, V>();
+		this.current = 0;
+	}
 
-		public Entry(V value, int ttl)
+	/**
+	 * Returns the generation holding the key, or -1 if it isn't cached.
+	 */
+	private int find(Object key)
+	{
+		for (int age = 0; age < generations.length; age++)
 		{
-			this.value = value;
-			this.ttl = ttl;
-		}
-
-		@SuppressWarnings("unchecked")
-        public boolean equals(Object o) {
-		    if (o instanceof TtlCache.Entry) {
-		        return ((Entry)o).value.equals(value);
-		    }		    
-		    return false;
+			int g = generation(age);
+			if (generations[g].containsKey(key))
+				return g;
 		}
+		return -1;
 	}
 
-	private final Map<K, Entry> contents;
-	private final int ttl;
-
-	public TtlCache(int ttl)
+	/**
+	 * Returns the index of the generation of the given age, in calls to
+	 * prune() since the current one started.
+	 */
+	private int generation(int age)
 	{
-		this.contents = new HashMap<K, Entry>();
-		this.ttl = ttl;
+		return (current - age + generations.length) % generations.length;
 	}
 
 	public synchronized boolean containsKey(Object key)
 	{
-		return contents.containsKey(key);
+		return find(key) != -1;
 	}
 
+	@SuppressWarnings("unchecked")
 	public synchronized V get(Object key)
 	{
-		Entry entry = contents.get(key);
-		if (entry == null)
-		    return null;
-		
+		int g = find(key);
+		if (g == -1)
+			return null;
+		if (g == current)
+			return generations[g].get(key);
+
 		// Reset the TTL when a value is accessed directly.
-		entry.ttl = ttl;
-		return entry.value;
+		V value = generations[g].remove(key);
+		generations[current].put((K) key, value);
+		return value;
 	}
 
 	public synchronized void prune()
 	{
-		List<K> toPrune = new ArrayList<K>();
-		for (K key : contents.keySet())
+		long start = System.nanoTime();
+		current = (current + 1) % generations.length;
+		// The slot of the new generation held the oldest one, whose
+		// entries have just run out of time.
+		generations[current] = new HashMap<K, V>();
+		lastPruneNanos = System.nanoTime() - start;
+	}
+
+	public synchronized V put(K key, V value)
+	{
+		int g = find(key);
+		V previous = null;
+		if (g != -1 && g != current)
+			previous = generations[g].remove(key);
+		V replaced = generations[current].put(key, value);
+		return (replaced != null) ? replaced : previous;
+	}
+
+	public synchronized int size()
+	{
+		int size = 0;
+		for (Map<K, V> generation : generations)
+			size += generation.size();
+		return size;
+	}
+
+	/**
+	 * Returns the number of entries that were last accessed the given number
+	 * of calls to prune() ago; the entries of age TTL are dropped by the next
+	 * call.
+	 */
+	public synchronized int getGenerationSize(int age)
+	{
+		return generations[generation(age)].size();
+	}
+
+	public int getTtl()
+	{
+		return generations.length - 1;
+	}
+
+	/**
+	 * Returns how long the last call to prune() took, in nanoseconds.
+	 */
+	public synchronized long getLastPruneNanos()
+	{
+		return lastPruneNanos;
+	}
+
+	public synchronized void clear()
+	{
+		for (int i = 0; i < generations.length; i++)
+			generations[i] = new HashMap<K, V>();
+	}
+
+	public synchronized boolean containsValue(Object value)
+	{
+		for (Map<K, V> generation : generations)
 		{
-			Entry entry = contents.get(key);
-			if (entry.ttl == 0)
-			{
-				toPrune.add(key);
-			}
-			entry.ttl--;
+			if (generation.containsValue(value))
+				return true;
 		}
+		return false;
+	}
 
-		for (K key : toPrune)
+	public synchronized boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	public synchronized V remove(Object key)
+	{
+		int g = find(key);
+		return (g != -1) ? generations[g].remove(key) : null;
+	}
+
+	// Like the key set of a HashMap, the key set reads the generations
+	// directly, so it must not be iterated while the cache is being
+	// modified; get() counts as a modification since it moves the entry to
+	// the current generation. The values and the entries are copied under
+	// the lock instead, so they can be iterated while other threads use the
+	// cache.
+
+	public synchronized Set<K> keySet()
+	{
+		return new AbstractSet<K>()
 		{
-			contents.remove(key);
-		}
+			public Iterator<K> iterator()
+			{
+				return new GenerationIterator<K>()
+				{
+					protected Iterator<K> iteratorOf(Map<K, V> generation)
+					{
+						return generation.keySet().iterator();
+					}
+				};
+			}
+
+			public int size()
+			{
+				return TtlCache.this.size();
+			}
+
+			public boolean contains(Object key)
+			{
+				return containsKey(key);
+			}
+		};
 	}
 
-	public synchronized V put(K key, V value)
+	public synchronized Collection<V> values()
 	{
-		Entry x = contents.put(key, new Entry(value, ttl));
-		if(x == null) return null;
-		return x.value;
+		Collection<V> values = new ArrayList<V>(size());
+		for (Map<K, V> generation : generations)
+			values.addAll(generation.values());
+		return values;
 	}
 
-	public synchronized int size()
+	public synchronized Set<Map.Entry<K, V>> entrySet()
 	{
-		return contents.size();
-	}
-
-    public synchronized void clear() {
-        contents.clear();
-    }
-
-    public synchronized boolean containsValue(Object value) {
-        return contents.containsValue(value);
-    }
-
-    public synchronized boolean isEmpty() {
-        return contents.isEmpty();
-    }
-
-    public synchronized Set<K> keySet() {
-        return contents.keySet();
-    }
-
-    public synchronized void putAll(Map<? extends K, ? extends V> m) {
-         for(Map.Entry<? extends K, ? extends V> anEntry : m.entrySet()) {
-             this.put(anEntry.getKey(), anEntry.getValue());
-         }
-    }
-
-    public synchronized V remove(Object key) {
-        return contents.remove(key).value;
-    }
-
-    public synchronized Collection<V> values() {
-        Collection<V> theValues = new HashSet<V>();
-        for (Entry e : contents.values())
-            theValues.add(e.value);
-        return theValues;
-    }
-    
-    private class entrySetMapEntry implements Map.Entry<K,V> {
-        private K key;
-        private V value;
-
-        entrySetMapEntry(K k, V v) {
-            key = k;
-            value = v;
-        }
-        
-        public K getKey() { return key; }
-        public V getValue() { return value; }
-        public V setValue(V value) { return (this.value = value); }
-    }
-    
-    public synchronized Set<java.util.Map.Entry<K, V>> entrySet() {
-        Set<Map.Entry<K,V>> theEntries = new HashSet<Map.Entry<K, V>>();
-        for (Map.Entry<K, Entry> e : contents.entrySet())
-            theEntries.add(new entrySetMapEntry(e.getKey(), e.getValue().value));
-        return theEntries;
-    }    
-}
\ No newline at end of file
+		Set<Map.Entry<K, V>> entries = new HashSet<Map.Entry<K, V>>();
+		for (Map<K, V> generation : generations)
+		{
+			for (Map.Entry<K, V> entry : generation.entrySet())
+				entries.add(new AbstractMap.SimpleEntry<K, V>(entry));
+		}
+		return entries;
+	}
+
+	/**
+	 * Iterates over one view of every generation in turn, from the newest to
+	 * the oldest.
+	 */
+	private abstract class GenerationIterator<T> implements Iterator<T>
+	{
+		private int age;
+		private Iterator<T> iterator;
+		/** The iterator that returned the last element, for remove() */
+		private Iterator<T> last;
+
+		protected abstract Iterator<T> iteratorOf(Map<K, V> generation);
+
+		public boolean hasNext()
+		{
+			while (iterator == null || !iterator.hasNext())
+			{
+				if (age == generations.length)
+					return false;
+				iterator = iteratorOf(generations[generation(age++)]);
+			}
+			return true;
+		}
+
+		public T next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+			last = iterator;
+			return iterator.next();
+		}
+
+		public void remove()
+		{
+			if (last == null)
+				throw new IllegalStateException();
+			last.remove();
+		}
+	}
+}
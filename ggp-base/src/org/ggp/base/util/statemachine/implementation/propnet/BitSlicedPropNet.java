@@ -0,0 +1,244 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.Random;
+
+import org.ggp.base.util.propnet.analysis.PropNetLatches;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+
+
+/**
+ * A bit-sliced evaluator for a {@link CompiledPropNet} that runs up to 64
+ * random depth charges at once. Every component holds a <tt>long</tt> whose
+ * bit <tt>i</tt> is its value in lane <tt>i</tt>, so each gate operation
+ * advances all lanes together; only move selection is done per lane.
+ *
+ * Legal, goal and terminal propositions may not depend on the inputs in GDL,
+ * so each step evaluates them over the current bases alone and then evaluates
+ * the transitions once the moves are chosen. Each pass only covers the
+ * components its targets depend on.
+ *
+ * If given the latches of the game, a lane also stops as soon as latches
+ * settle the goal of every role, without playing on to a terminal state.
+ *
+ * This class is not thread-safe.
+ */
+public final class BitSlicedPropNet
+{
+    /** The number of lanes in a word */
+    public static final int LANES = 64;
+
+    private final CompiledPropNet net;
+    /** The latches of the game, or null to always play to a terminal state */
+    private final PropNetLatches latches;
+    /** The components legal, goal and terminal depend on, in order */
+    private final int[] viewCone;
+    /** The components the transitions depend on, in order */
+    private final int[] nextCone;
+    /** The value of every component, one bit per lane */
+    private final long[] values;
+    /** Scratch space for the bases of the next state */
+    private final long[] nextBases;
+    /** Scratch space for per-lane move selection */
+    private final int[] counts, chosen;
+    private final Random random;
+
+    public BitSlicedPropNet(CompiledPropNet net, Random random)
+    {
+        this(net, null, random);
+    }
+
+    public BitSlicedPropNet(CompiledPropNet net, PropNetLatches latches, Random random)
+    {
+        this.net = net;
+        this.latches = (latches != null && latches.hasGoalLatches()) ? latches : null;
+        this.random = random;
+
+        int[] legals = net.getAllLegalIds();
+        int[] goals = net.getAllGoalIds();
+        int[] viewTargets = new int[legals.length + goals.length + 1];
+        System.arraycopy(legals, 0, viewTargets, 0, legals.length);
+        System.arraycopy(goals, 0, viewTargets, legals.length, goals.length);
+        viewTargets[viewTargets.length - 1] = net.getTerminalId();
+        this.viewCone = net.getCone(viewTargets);
+        this.nextCone = net.getCone(net.getNextIds());
+
+        this.values = new long[net.getNumComponents()];
+        for (int id = 0; id < net.getFirstComputedId(); id++) {
+            if (net.getType(id) == CompiledPropNet.CONSTANT_TRUE)
+                values[id] = -1L;
+        }
+        this.nextBases = new long[net.getNumBases()];
+        this.counts = new int[LANES];
+        this.chosen = new int[LANES];
+    }
+
+    /**
+     * Performs <tt>theDepths.length</tt> (at most {@link #LANES}) independent
+     * random depth charges from the given state.
+     *
+     * @param theDepths
+     *            Receives the number of moves made in each charge.
+     * @param theGoals
+     *            Receives, for each charge, the goal of every role in the
+     *            terminal state it reached, or in the state where latches
+     *            settled them.
+     */
+    public void performDepthCharges(MachineState state, int[] theDepths, int[][] theGoals)
+    throws MoveDefinitionException, GoalDefinitionException
+    {
+        int lanes = theDepths.length;
+        if (lanes > LANES)
+            throw new IllegalArgumentException("At most " + LANES + " depth charges can run at once, not " + lanes);
+        long active = (lanes == LANES) ? -1L : (1L << lanes) - 1;
+
+        long[] bases = net.getBaseBits(state);
+        for (int base = 0; base < net.getNumBases(); base++)
+            values[base] = CompiledPropNet.get(bases, base) ? -1L : 0;
+
+        int terminalId = net.getTerminalId();
+        int depth = 0;
+        while (true) {
+            evaluate(viewCone);
+
+            long terminal = (terminalId == -1) ? 0 : values[terminalId] & active;
+            long settled = (latches == null) ? 0 : getSettledLanes(active) & ~terminal;
+            long finished = terminal | settled;
+            while (finished != 0) {
+                int lane = Long.numberOfTrailingZeros(finished);
+                finished &= finished - 1;
+                theDepths[lane] = depth;
+                if ((settled & (1L << lane)) != 0)
+                    readLatchedGoals(lane, theGoals[lane]);
+                else
+                    readGoals(state, lane, theGoals[lane]);
+                active &= ~(1L << lane);
+            }
+            if (active == 0)
+                return;
+
+            for (int input = 0; input < net.getNumInputProps(); input++)
+                values[net.getInputId(input)] = 0;
+            for (int r = 0; r < net.getRoles().size(); r++)
+                chooseMoves(state, r, active);
+
+            evaluate(nextCone);
+            for (int base = 0; base < net.getNumBases(); base++) {
+                int next = net.getNextId(base);
+                nextBases[base] = (next == -1) ? 0 : values[next];
+            }
+            System.arraycopy(nextBases, 0, values, 0, nextBases.length);
+            depth++;
+        }
+    }
+
+    /**
+     * Picks a uniformly random legal move for the role in every active lane,
+     * by reservoir sampling over the legal propositions, and sets its input.
+     */
+    private void chooseMoves(MachineState state, int r, long active)
+    throws MoveDefinitionException
+    {
+        for (int lane = 0; lane < LANES; lane++)
+            counts[lane] = 0;
+        for (int i = 0; i < net.getNumLegals(r); i++) {
+            long legal = values[net.getLegalId(r, i)] & active;
+            while (legal != 0) {
+                int lane = Long.numberOfTrailingZeros(legal);
+                legal &= legal - 1;
+                if (random.nextInt(++counts[lane]) == 0)
+                    chosen[lane] = i;
+            }
+        }
+        for (long lanes = active; lanes != 0; lanes &= lanes - 1) {
+            int lane = Long.numberOfTrailingZeros(lanes);
+            if (counts[lane] == 0)
+                throw new MoveDefinitionException(state, net.getRoles().get(r));
+            int input = net.getLegalInput(r, chosen[lane]);
+            if (input != -1)
+                values[net.getInputId(input)] |= (1L << lane);
+        }
+    }
+
+    /**
+     * Returns the lanes among the given ones where latches settle the goal of
+     * every role.
+     */
+    private long getSettledLanes(long lanes)
+    {
+        for (int r = 0; r < net.getRoles().size() && lanes != 0; r++) {
+            long fixed = 0;
+            for (int i = 0; i < latches.getNumGoalLatches(r); i++)
+                fixed |= getLatchedLanes(r, i);
+            lanes &= fixed;
+        }
+        return lanes;
+    }
+
+    private long getLatchedLanes(int r, int i)
+    {
+        long base = values[latches.getGoalLatchBase(r, i)];
+        return latches.isGoalLatchPositive(r, i) ? base : ~base;
+    }
+
+    private void readLatchedGoals(int lane, int[] goals)
+    {
+        long bit = 1L << lane;
+        for (int r = 0; r < net.getRoles().size(); r++) {
+            for (int i = 0; i < latches.getNumGoalLatches(r); i++) {
+                if ((getLatchedLanes(r, i) & bit) != 0) {
+                    goals[r] = latches.getGoalLatchValue(r, i);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void readGoals(MachineState state, int lane, int[] goals)
+    throws GoalDefinitionException
+    {
+        long bit = 1L << lane;
+        for (int r = 0; r < net.getRoles().size(); r++) {
+            int goal = -1;
+            for (int i = 0; i < net.getNumGoals(r); i++) {
+                if ((values[net.getGoalId(r, i)] & bit) != 0) {
+                    if (goal != -1)
+                        throw new GoalDefinitionException(state, net.getRoles().get(r));
+                    goal = net.getGoalValue(r, i);
+                }
+            }
+            if (goal == -1)
+                throw new GoalDefinitionException(state, net.getRoles().get(r));
+            goals[r] = goal;
+        }
+    }
+
+    private void evaluate(int[] cone)
+    {
+        for (int id : cone) {
+            int numInputs = net.getNumInputs(id);
+            long value;
+            switch (net.getType(id)) {
+            case CompiledPropNet.AND:
+                value = -1L;
+                for (int k = 0; k < numInputs; k++)
+                    value &= values[net.getInput(id, k)];
+                break;
+            case CompiledPropNet.OR:
+                value = 0;
+                for (int k = 0; k < numInputs; k++)
+                    value |= values[net.getInput(id, k)];
+                break;
+            case CompiledPropNet.NOT:
+                value = ~values[net.getInput(id, 0)];
+                break;
+            default:
+                value = values[net.getInput(id, 0)];
+                break;
+            }
+            values[id] = value;
+        }
+    }
+}
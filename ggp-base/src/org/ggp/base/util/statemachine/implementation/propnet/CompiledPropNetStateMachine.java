@@ -0,0 +1,823 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.analysis.PropNetFactor;
+import org.ggp.base.util.propnet.analysis.PropNetFactorizer;
+import org.ggp.base.util.propnet.analysis.PropNetLatchAnalyzer;
+import org.ggp.base.util.propnet.analysis.PropNetLatches;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.DifferentialPropagator;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.compiler.CompiledPropNetCache;
+import org.ggp.base.util.propnet.factory.compiler.PropNetCompiler;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.query.ProverQueryBuilder;
+
+
+/**
+ * A state machine backed by a {@link CompiledPropNet}. The object graph built
+ * by the factory is compiled to flat arrays and then dropped, and component
+ * values are kept in a single bitset, so evaluating a state touches only
+ * primitive arrays.
+ *
+ * Two propagation modes are available. {@link Propagation#FULL} evaluates, on
+ * each query, only the cone of gates the queried propositions depend on: the
+ * terminal proposition, one role's goals, one role's legals or the
+ * transitions. {@link Propagation#DIFFERENTIAL}
+ * keeps the last evaluated assignment and pushes only the changed bases and
+ * inputs through the network, which pays off when consecutive queries are on
+ * similar states, as in depth charges.
+ *
+ * In full mode, {@link #updateRoot(MachineState)} drops from the cones every
+ * gate whose value latches already fix in the new root, so the evaluated
+ * network shrinks as the game progresses. Differential mode never propagates
+ * through gates whose inputs don't change, so it gets this for free.
+ *
+ * The compiled network is immutable and shared, while the component values
+ * live in a separate buffer for each thread that uses the machine. Once
+ * initialized, a single instance can therefore serve several search threads
+ * without one propnet copy per core.
+ *
+ * Unless told otherwise, the machine reads and writes compiled networks
+ * through the default {@link CompiledPropNetCache}, so replaying a game skips
+ * building its propnet.
+ */
+public class CompiledPropNetStateMachine extends StateMachine {
+    /** How component values are brought up to date */
+    public enum Propagation {
+        /** Re-evaluate the gates each query depends on, in topological order */
+        FULL,
+        /** Push only changed sources through per-gate true-input counters */
+        DIFFERENTIAL
+    }
+
+    /** The propagation mode */
+    private final Propagation propagation;
+    /** Where compiled networks are cached, or null to always build them */
+    private final CompiledPropNetCache cache;
+    /** The compiled proposition network, shared by all threads */
+    private CompiledPropNet net;
+    /** The player roles */
+    private List<Role> roles;
+    /** The initial state, computed once during initialization */
+    private MachineState initialState;
+    /** The latches of the network and the goals they settle */
+    private PropNetLatches latches;
+    /** The cone of each query for the whole game, in full mode only */
+    private EvaluationPlans gamePlans;
+    /** The cones restricted to the current root, read by every evaluator */
+    private volatile EvaluationPlans plans;
+    /** The evaluation state of each thread using this machine */
+    private ThreadLocal<Evaluator> evaluators;
+
+    public CompiledPropNetStateMachine() {
+        this(Propagation.FULL);
+    }
+
+    public CompiledPropNetStateMachine(Propagation propagation) {
+        this(propagation, CompiledPropNetCache.getDefaultCache());
+    }
+
+    public CompiledPropNetStateMachine(Propagation propagation, CompiledPropNetCache cache) {
+        this.propagation = propagation;
+        this.cache = cache;
+    }
+
+    @Override
+    public void initialize(List<Gdl> description) {
+        final CompiledPropNet compiled;
+        try {
+            if (cache != null) {
+                compiled = cache.getOrCreate(description);
+            } else {
+                compiled = PropNetCompiler.compile(OptimizingPropNetFactory.create(description, Runtime.getRuntime().availableProcessors()));
+            }
+        } catch (InterruptedException e) {
+            GamerLogger.logStackTrace("StateMachine", e);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building the propnet", e);
+        }
+        net = compiled;
+        roles = compiled.getRoles();
+        latches = PropNetLatchAnalyzer.findLatches(compiled);
+        gamePlans = (propagation == Propagation.FULL) ? new EvaluationPlans(compiled) : null;
+        plans = gamePlans;
+        evaluators = newEvaluators();
+
+        long[] initialBases = new long[(net.getNumBases() + 63) >>> 6];
+        for (int base : net.getInitialBases()) {
+            CompiledPropNet.set(initialBases, base);
+        }
+        initialState = net.toState(initialBases);
+    }
+
+    /**
+     * Returns a fresh ThreadLocal, so no thread keeps a buffer for a previous
+     * game.
+     */
+    private ThreadLocal<Evaluator> newEvaluators() {
+        final CompiledPropNet compiled = net;
+        final PropNetLatches compiledLatches = latches;
+        final CompiledPropNetStateMachine owner = this;
+        return new ThreadLocal<Evaluator>() {
+            @Override
+            protected Evaluator initialValue() {
+                return new Evaluator(compiled, compiledLatches, owner);
+            }
+        };
+    }
+
+    /**
+     * A single instance already serves any number of threads, but a copy
+     * can be initialized for another game without affecting this one. It
+     * shares the compiled network, latches and evaluation plans, including
+     * those for the current root, and builds its own evaluation buffers.
+     */
+    @Override
+    public StateMachine copy() {
+        CompiledPropNetStateMachine copy = new CompiledPropNetStateMachine(propagation, cache);
+        copy.net = net;
+        copy.roles = roles;
+        copy.initialState = initialState;
+        copy.latches = latches;
+        copy.gamePlans = gamePlans;
+        copy.plans = plans;
+        copy.evaluators = copy.newEvaluators();
+        return copy;
+    }
+
+    @Override
+    public MachineState getInitialState() {
+        return initialState;
+    }
+
+    @Override
+    public List<Role> getRoles() {
+        return roles;
+    }
+
+    @Override
+    public String getName() {
+        return super.getName() + "(" + propagation + ")";
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state) {
+        Evaluator evaluator = evaluators.get();
+        evaluator.load(state);
+        evaluator.computeTerminal();
+        int terminal = net.getTerminalId();
+        return terminal != -1 && CompiledPropNet.get(evaluator.values, terminal);
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role)
+    throws GoalDefinitionException {
+        Evaluator evaluator = evaluators.get();
+        evaluator.load(state);
+        int r = roles.indexOf(role);
+        if (r == -1) {
+            throw new GoalDefinitionException(state, role);
+        }
+        evaluator.computeGoals(r);
+        int goal = -1;
+        for (int i = 0; i < net.getNumGoals(r); i++) {
+            if (CompiledPropNet.get(evaluator.values, net.getGoalId(r, i))) {
+                if (goal != -1) {
+                    throw new GoalDefinitionException(state, role);
+                }
+                goal = net.getGoalValue(r, i);
+            }
+        }
+        if (goal == -1) {
+            throw new GoalDefinitionException(state, role);
+        }
+        return goal;
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role)
+    throws MoveDefinitionException {
+        Evaluator evaluator = evaluators.get();
+        evaluator.load(state);
+        int r = roles.indexOf(role);
+        List<Move> moves = new ArrayList<Move>();
+        if (r != -1) {
+            evaluator.computeLegals(r);
+            for (int i = 0; i < net.getNumLegals(r); i++) {
+                if (CompiledPropNet.get(evaluator.values, net.getLegalId(r, i))) {
+                    moves.add(net.getLegalMove(r, i));
+                }
+            }
+        }
+        if (moves.isEmpty()) {
+            throw new MoveDefinitionException(state, role);
+        }
+        return moves;
+    }
+
+    /**
+     * In full mode, finds the gates that latches fix in the new root and
+     * drops them from the cones; each thread's evaluator switches over the
+     * next time it loads a state.
+     */
+    @Override
+    public void updateRoot(MachineState theState) {
+        EvaluationPlans current = plans;
+        if (current == null) {
+            return;
+        }
+        long[] settledValues = new long[(net.getNumComponents() + 63) >>> 6];
+        long[] settled = PropNetLatchAnalyzer.findSettledComponents(net, latches, net.getBaseBits(theState), settledValues);
+        if (!Arrays.equals(settled, current.settled)) {
+            plans = new EvaluationPlans(gamePlans, net, settled, settledValues);
+        }
+    }
+
+    /**
+     * Computes the next state into the storage of the given one, unless it
+     * is the initial state, which stays valid.
+     */
+    @Override
+    public MachineState getNextStateDestructively(MachineState state, List<Move> moves)
+    throws TransitionDefinitionException {
+        if (state == initialState) {
+            return getNextState(state, moves);
+        }
+        Evaluator evaluator = evaluators.get();
+        evaluator.markBases(state);
+        return evaluator.computeNextStateDestructively(state, evaluator.markInputs(roles, moves));
+    }
+
+    /**
+     * Returns the latches of the current game.
+     */
+    public PropNetLatches getLatches() {
+        return latches;
+    }
+
+    @Override
+    public List<Integer> getLatchedGoals(MachineState state) {
+        return latches.getLatchedGoals(state);
+    }
+
+    /**
+     * Returns a view of this machine for each independent sub-game of the
+     * current game, so that each can be searched on its own. A game that
+     * can't be split gives a single view offering every move.
+     */
+    public List<StateMachine> getFactorMachines() {
+        List<StateMachine> machines = new ArrayList<StateMachine>();
+        for (PropNetFactor factor : PropNetFactorizer.findFactors(net)) {
+            machines.add(new FactorStateMachine(this, factor));
+        }
+        return machines;
+    }
+
+    /**
+     * Plays the charge out on this thread's evaluation buffers, so that no
+     * moves or states are allocated along the way.
+     */
+    @Override
+    public int performDepthCharge(MachineState state, Random random, int[] theGoals)
+    throws MoveDefinitionException, GoalDefinitionException {
+        return evaluators.get().performDepthCharge(state, random, theGoals);
+    }
+
+    /**
+     * Runs the depth charges {@link BitSlicedPropNet#LANES} at a time on a
+     * bit-sliced copy of the network.
+     */
+    @Override
+    public void performDepthCharges(MachineState state, int[] theDepths, int[][] theGoals)
+    throws MoveDefinitionException, GoalDefinitionException {
+        BitSlicedPropNet bitSlicedPropNet = evaluators.get().getBitSlicedPropNet();
+        int[] depths = new int[BitSlicedPropNet.LANES];
+        for (int first = 0; first < theDepths.length; first += BitSlicedPropNet.LANES) {
+            int lanes = Math.min(BitSlicedPropNet.LANES, theDepths.length - first);
+            if (lanes != depths.length) {
+                depths = new int[lanes];
+            }
+            int[][] goals = new int[lanes][];
+            System.arraycopy(theGoals, first, goals, 0, lanes);
+            bitSlicedPropNet.performDepthCharges(state, depths, goals);
+            System.arraycopy(depths, 0, theDepths, first, lanes);
+        }
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves)
+    throws TransitionDefinitionException {
+        Evaluator evaluator = evaluators.get();
+        evaluator.markBases(state);
+        return evaluator.computeNextState(state, evaluator.markInputs(roles, moves));
+    }
+
+    // A move index is the index of the move's legal proposition in the network.
+
+    @Override
+    public Move getMove(int roleIndex, int moveIndex) {
+        return net.getLegalMove(roleIndex, moveIndex);
+    }
+
+    /**
+     * Returns the index of the move, or -1 if the network has no legal
+     * proposition for it, in which case the move is never legal.
+     */
+    @Override
+    public int getMoveIndex(int roleIndex, Move move) {
+        return net.getLegalIndex(roleIndex, move);
+    }
+
+    @Override
+    public int[] getLegalMoveIndices(MachineState state, int roleIndex)
+    throws MoveDefinitionException {
+        Evaluator evaluator = evaluators.get();
+        evaluator.load(state);
+        evaluator.computeLegals(roleIndex);
+        int count = 0;
+        for (int i = 0; i < net.getNumLegals(roleIndex); i++) {
+            if (CompiledPropNet.get(evaluator.values, net.getLegalId(roleIndex, i))) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            throw new MoveDefinitionException(state, roles.get(roleIndex));
+        }
+        int[] indices = new int[count];
+        count = 0;
+        for (int i = 0; count < indices.length; i++) {
+            if (CompiledPropNet.get(evaluator.values, net.getLegalId(roleIndex, i))) {
+                indices[count++] = i;
+            }
+        }
+        return indices;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, int[] jointMove)
+    throws TransitionDefinitionException {
+        Evaluator evaluator = evaluators.get();
+        evaluator.markBases(state);
+        return evaluator.computeNextState(state, evaluator.markLegalInputs(jointMove));
+    }
+
+    /**
+     * Loads the bases of the state once and then only switches the inputs
+     * from one joint move to the next.
+     */
+    @Override
+    public List<MachineState> getNextStates(MachineState state, List<int[]> jointMoves)
+    throws TransitionDefinitionException {
+        Evaluator evaluator = evaluators.get();
+        evaluator.markBases(state);
+        List<MachineState> nextStates = new ArrayList<MachineState>(jointMoves.size());
+        for (int[] jointMove : jointMoves) {
+            nextStates.add(evaluator.computeNextState(state, evaluator.markLegalInputs(jointMove)));
+        }
+        return nextStates;
+    }
+
+    @Override
+    public void getGoals(MachineState state, int[] theGoals)
+    throws GoalDefinitionException {
+        Evaluator evaluator = evaluators.get();
+        evaluator.load(state);
+        evaluator.readGoals(theGoals);
+    }
+
+    /**
+     * The cone of each query, computed once per game and restricted again for
+     * each root, and shared by every thread's evaluator.
+     */
+    private static final class EvaluationPlans {
+        private final int[] terminalCone;
+        /** The cone of each role's goal propositions, indexed by role */
+        private final int[][] goalCones;
+        /** The cone of each role's legal propositions, indexed by role */
+        private final int[][] legalCones;
+        private final int[] nextCone;
+        /** The components left out of the cones, as a bitset, or null */
+        private final long[] settled;
+        /** The settled gates and, as a bitset, the value they are fixed to */
+        private final int[] settledIds;
+        private final long[] settledValues;
+
+        public EvaluationPlans(CompiledPropNet net) {
+            settled = null;
+            settledIds = new int[0];
+            settledValues = null;
+            int numRoles = net.getRoles().size();
+            terminalCone = net.getCone(new int[] {net.getTerminalId()});
+            goalCones = new int[numRoles][];
+            legalCones = new int[numRoles][];
+            for (int r = 0; r < numRoles; r++) {
+                int[] goals = new int[net.getNumGoals(r)];
+                for (int i = 0; i < goals.length; i++) {
+                    goals[i] = net.getGoalId(r, i);
+                }
+                goalCones[r] = net.getCone(goals);
+                int[] legals = new int[net.getNumLegals(r)];
+                for (int i = 0; i < legals.length; i++) {
+                    legals[i] = net.getLegalId(r, i);
+                }
+                legalCones[r] = net.getCone(legals);
+            }
+            nextCone = net.getCone(net.getNextIds());
+        }
+
+        /**
+         * Restricts the plans to the components that aren't settled. The
+         * settled gates must be written into a value buffer before it is
+         * evaluated with these plans.
+         */
+        public EvaluationPlans(EvaluationPlans plans, CompiledPropNet net, long[] settled, long[] settledValues) {
+            this.settled = settled;
+            this.settledValues = settledValues;
+            int count = 0;
+            for (int id = net.getFirstComputedId(); id < net.getNumComponents(); id++) {
+                if (CompiledPropNet.get(settled, id)) {
+                    count++;
+                }
+            }
+            settledIds = new int[count];
+            count = 0;
+            for (int id = net.getFirstComputedId(); id < net.getNumComponents(); id++) {
+                if (CompiledPropNet.get(settled, id)) {
+                    settledIds[count++] = id;
+                }
+            }
+            terminalCone = withoutSettled(plans.terminalCone);
+            goalCones = new int[plans.goalCones.length][];
+            legalCones = new int[plans.legalCones.length][];
+            for (int r = 0; r < goalCones.length; r++) {
+                goalCones[r] = withoutSettled(plans.goalCones[r]);
+                legalCones[r] = withoutSettled(plans.legalCones[r]);
+            }
+            nextCone = withoutSettled(plans.nextCone);
+        }
+
+        private int[] withoutSettled(int[] cone) {
+            int[] kept = new int[cone.length];
+            int count = 0;
+            for (int id : cone) {
+                if (!CompiledPropNet.get(settled, id)) {
+                    kept[count++] = id;
+                }
+            }
+            return Arrays.copyOf(kept, count);
+        }
+
+        /**
+         * Writes the value of every settled gate into the buffer.
+         */
+        public void writeSettled(long[] values) {
+            for (int id : settledIds) {
+                if (CompiledPropNet.get(settledValues, id)) {
+                    CompiledPropNet.set(values, id);
+                } else {
+                    CompiledPropNet.clear(values, id);
+                }
+            }
+        }
+    }
+
+    /**
+     * The mutable evaluation state of one thread: the component values and
+     * whatever else is needed to bring them up to date.
+     */
+    private static final class Evaluator {
+        private final CompiledPropNet net;
+        private final PropNetLatches latches;
+        /** The incremental evaluator, in differential mode only */
+        private final DifferentialPropagator propagator;
+        /** The machine whose current plans this evaluator follows */
+        private final CompiledPropNetStateMachine owner;
+        /** The cone of each query, in full mode only */
+        private EvaluationPlans plans;
+        /** Which cones are up to date with the bases, in full mode */
+        private boolean terminalComputed;
+        private final boolean[] goalsComputed, legalsComputed;
+        /** The value of every component, indexed by id */
+        private final long[] values;
+        /** The state currently loaded into the bases, if no inputs are set */
+        private MachineState loadedState;
+        /** The batch depth charge engine, created on first use */
+        private BitSlicedPropNet bitSlicedPropNet;
+        /** Scratch space for depth charges and moves given by index */
+        private final long[] nextBases;
+        private final int[] chosenInputs;
+
+        /**
+         * Creates an evaluator that only computes the cones of the owner's
+         * plans, or that propagates differentially if it has none.
+         */
+        public Evaluator(CompiledPropNet net, PropNetLatches latches, CompiledPropNetStateMachine owner) {
+            this.net = net;
+            this.latches = latches;
+            this.owner = owner;
+            this.plans = owner.plans;
+            if (plans == null) {
+                this.propagator = new DifferentialPropagator(net);
+                this.values = propagator.getValues();
+            } else {
+                // The owner may already have moved its root; its plans only
+                // hold once their settled gates are in the buffer.
+                this.propagator = null;
+                this.values = net.newValueBuffer();
+                plans.writeSettled(values);
+            }
+            this.goalsComputed = new boolean[net.getRoles().size()];
+            this.legalsComputed = new boolean[net.getRoles().size()];
+            this.nextBases = new long[(net.getNumBases() + 63) >>> 6];
+            this.chosenInputs = new int[net.getRoles().size()];
+        }
+
+        public BitSlicedPropNet getBitSlicedPropNet() {
+            if (bitSlicedPropNet == null) {
+                bitSlicedPropNet = new BitSlicedPropNet(net, latches, new Random());
+            }
+            return bitSlicedPropNet;
+        }
+
+        /**
+         * Sets the bases to the given state, unless the same state is already
+         * loaded. In full mode the queries are then computed lazily.
+         */
+        public void load(MachineState state) {
+            if (state == loadedState) {
+                return;
+            }
+            markBases(state);
+            loadedState = state;
+        }
+
+        public void markBases(MachineState state) {
+            EvaluationPlans current = owner.plans;
+            if (current != plans) {
+                plans = current;
+                plans.writeSettled(values);
+            }
+            setBases(net.getBaseBits(state));
+        }
+
+        private void setBases(long[] bases) {
+            if (propagator == null) {
+                terminalComputed = false;
+                Arrays.fill(goalsComputed, false);
+                Arrays.fill(legalsComputed, false);
+                // Bases are the lowest ids, so they can be copied word by word.
+                int fullWords = net.getNumBases() >>> 6;
+                System.arraycopy(bases, 0, values, 0, fullWords);
+                int rest = net.getNumBases() & 63;
+                if (rest != 0) {
+                    long mask = (1L << rest) - 1;
+                    values[fullWords] = (values[fullWords] & ~mask) | (bases[fullWords] & mask);
+                }
+                return;
+            }
+            // Only push the bases whose value actually changes.
+            for (int base = 0; base < net.getNumBases(); base++) {
+                propagator.set(base, CompiledPropNet.get(bases, base));
+            }
+        }
+
+        /**
+         * Plays a random game from the state on this evaluator's buffers,
+         * choosing moves by the index of their legal proposition, and stores
+         * the goals it ends with. Nothing is allocated unless the game turns
+         * out to be ill-defined.
+         *
+         * @return The number of moves made.
+         */
+        public int performDepthCharge(MachineState state, Random random, int[] goals)
+        throws MoveDefinitionException, GoalDefinitionException {
+            markBases(state);
+            loadedState = null;
+            List<Role> roles = net.getRoles();
+            int terminal = net.getTerminalId();
+            int depth = 0;
+            while (!readLatchedGoals(goals)) {
+                computeTerminal();
+                if (terminal != -1 && CompiledPropNet.get(values, terminal)) {
+                    readGoals(goals);
+                    return depth;
+                }
+                for (int r = 0; r < roles.size(); r++) {
+                    chosenInputs[r] = chooseLegalInput(r, random);
+                }
+                for (int input : chosenInputs) {
+                    if (input != -1) {
+                        setSource(net.getInputId(input), true);
+                    }
+                }
+                computeNext();
+                Arrays.fill(nextBases, 0);
+                readNextBases(nextBases);
+                clearInputs(chosenInputs);
+                setBases(nextBases);
+                depth++;
+            }
+            return depth;
+        }
+
+        /**
+         * Picks a uniformly random legal move for the role and returns its
+         * input index, or -1 if the move has no input.
+         */
+        private int chooseLegalInput(int r, Random random) throws MoveDefinitionException {
+            computeLegals(r);
+            int count = 0;
+            for (int i = 0; i < net.getNumLegals(r); i++) {
+                if (CompiledPropNet.get(values, net.getLegalId(r, i))) {
+                    count++;
+                }
+            }
+            if (count == 0) {
+                throw new MoveDefinitionException(getBasesAsState(), net.getRoles().get(r));
+            }
+            int chosen = random.nextInt(count);
+            for (int i = 0; ; i++) {
+                if (CompiledPropNet.get(values, net.getLegalId(r, i)) && chosen-- == 0) {
+                    return net.getLegalInput(r, i);
+                }
+            }
+        }
+
+        /**
+         * Stores the goals if latches settle all of them in the current
+         * bases, whose bits are the first bits of the value buffer.
+         */
+        private boolean readLatchedGoals(int[] goals) {
+            for (int r = 0; r < goals.length; r++) {
+                goals[r] = latches.getLatchedGoal(values, r);
+                if (goals[r] == -1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public void readGoals(int[] goals) throws GoalDefinitionException {
+            for (int r = 0; r < goals.length; r++) {
+                computeGoals(r);
+                goals[r] = -1;
+                for (int i = 0; i < net.getNumGoals(r); i++) {
+                    if (CompiledPropNet.get(values, net.getGoalId(r, i))) {
+                        if (goals[r] != -1) {
+                            throw new GoalDefinitionException(getBasesAsState(), net.getRoles().get(r));
+                        }
+                        goals[r] = net.getGoalValue(r, i);
+                    }
+                }
+                if (goals[r] == -1) {
+                    throw new GoalDefinitionException(getBasesAsState(), net.getRoles().get(r));
+                }
+            }
+        }
+
+        /**
+         * Returns the state currently in the bases, for error reporting.
+         */
+        private MachineState getBasesAsState() {
+            long[] bases = new long[nextBases.length];
+            for (int base = 0; base < net.getNumBases(); base++) {
+                if (CompiledPropNet.get(values, base)) {
+                    CompiledPropNet.set(bases, base);
+                }
+            }
+            return net.toState(bases);
+        }
+
+        public void setSource(int id, boolean value) {
+            if (propagator != null) {
+                propagator.set(id, value);
+            } else if (value) {
+                CompiledPropNet.set(values, id);
+            } else {
+                CompiledPropNet.clear(values, id);
+            }
+        }
+
+        // In differential mode every component is already up to date once
+        // the sources are set, so computing a query does nothing.
+
+        public void computeTerminal() {
+            if (propagator == null && !terminalComputed) {
+                net.propagate(values, plans.terminalCone);
+                terminalComputed = true;
+            }
+        }
+
+        public void computeGoals(int r) {
+            if (propagator == null && !goalsComputed[r]) {
+                net.propagate(values, plans.goalCones[r]);
+                goalsComputed[r] = true;
+            }
+        }
+
+        public void computeLegals(int r) {
+            if (propagator == null && !legalsComputed[r]) {
+                net.propagate(values, plans.legalCones[r]);
+                legalsComputed[r] = true;
+            }
+        }
+
+        /**
+         * Computes the transitions, once the bases and inputs are set.
+         */
+        public void computeNext() {
+            if (propagator == null) {
+                net.propagate(values, plans.nextCone);
+            }
+        }
+
+        /**
+         * Computes the transitions once the bases of the given state and the
+         * inputs of a joint move are set, clears the inputs again and returns
+         * the next state.
+         */
+        public MachineState computeNextState(MachineState state, int[] marked) {
+            computeNext();
+            long[] bases = new long[nextBases.length];
+            readNextBases(bases);
+            clearInputs(marked);
+            // The bases are still those of the given state; legal, goal and
+            // terminal don't read the inputs, so their cones can be computed later.
+            loadedState = state;
+            return net.toNextState(state, bases);
+        }
+
+        /**
+         * Like {@link #computeNextState(MachineState, int[])}, but the next
+         * state reuses the storage of the given one.
+         */
+        public MachineState computeNextStateDestructively(MachineState state, int[] marked) {
+            computeNext();
+            Arrays.fill(nextBases, 0);
+            readNextBases(nextBases);
+            clearInputs(marked);
+            loadedState = null;
+            return net.toNextStateDestructively(state, nextBases);
+        }
+
+        private void readNextBases(long[] bases) {
+            for (int base = 0; base < net.getNumBases(); base++) {
+                int next = net.getNextId(base);
+                if (next != -1 && CompiledPropNet.get(values, next)) {
+                    CompiledPropNet.set(bases, base);
+                }
+            }
+        }
+
+        private void clearInputs(int[] marked) {
+            for (int input : marked) {
+                if (input != -1) {
+                    setSource(net.getInputId(input), false);
+                }
+            }
+        }
+
+        /**
+         * Sets the inputs of the joint move given by legal indices and returns
+         * their input indices, with -1 for moves that have no input. The
+         * returned array is a scratch buffer, valid until the next call.
+         */
+        public int[] markLegalInputs(int[] jointMove) {
+            for (int r = 0; r < jointMove.length; r++) {
+                chosenInputs[r] = net.getLegalInput(r, jointMove[r]);
+                if (chosenInputs[r] != -1) {
+                    setSource(net.getInputId(chosenInputs[r]), true);
+                }
+            }
+            return chosenInputs;
+        }
+
+        /**
+         * Sets the inputs of the given joint move and returns their input
+         * indices, with -1 for moves the network has no input for.
+         */
+        public int[] markInputs(List<Role> roles, List<Move> moves) {
+            int[] marked = new int[roles.size()];
+            for (int r = 0; r < roles.size(); r++) {
+                marked[r] = net.getInputIndex(ProverQueryBuilder.toDoes(roles.get(r), moves.get(r)));
+                if (marked[r] != -1) {
+                    setSource(net.getInputId(marked[r]), true);
+                }
+            }
+            return marked;
+        }
+    }
+}
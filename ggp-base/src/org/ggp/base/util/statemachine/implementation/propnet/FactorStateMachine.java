@@ -0,0 +1,100 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.analysis.PropNetFactor;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+
+/**
+ * A view of a game restricted to one of its independent factors (see
+ * {@link org.ggp.base.util.propnet.analysis.PropNetFactorizer}). It only
+ * offers the moves of the factor, so a search on it explores that sub-game
+ * alone; states, transitions, goals and terminal are those of the whole game,
+ * taken from the backing machine.
+ *
+ * A role with no legal move in the factor, such as a role whose moves all
+ * belong to other factors, keeps all of its legal moves.
+ */
+public final class FactorStateMachine extends StateMachine {
+    private final StateMachine backingStateMachine;
+    private final PropNetFactor factor;
+
+    public FactorStateMachine(StateMachine backingStateMachine, PropNetFactor factor) {
+        this.backingStateMachine = backingStateMachine;
+        this.factor = factor;
+    }
+
+    public PropNetFactor getFactor() {
+        return factor;
+    }
+
+    @Override
+    public StateMachine copy() {
+        StateMachine backingCopy = backingStateMachine.copy();
+        if (backingCopy == null) {
+            return null;
+        }
+        FactorStateMachine copy = new FactorStateMachine(backingCopy, factor);
+        copy.shareMoveIndices(this);
+        return copy;
+    }
+
+    @Override
+    public void initialize(List<Gdl> description) {
+        backingStateMachine.initialize(description);
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role)
+    throws GoalDefinitionException {
+        return backingStateMachine.getGoal(state, role);
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state) {
+        return backingStateMachine.isTerminal(state);
+    }
+
+    @Override
+    public List<Integer> getLatchedGoals(MachineState state) {
+        return backingStateMachine.getLatchedGoals(state);
+    }
+
+    @Override
+    public List<Role> getRoles() {
+        return backingStateMachine.getRoles();
+    }
+
+    @Override
+    public MachineState getInitialState() {
+        return backingStateMachine.getInitialState();
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role)
+    throws MoveDefinitionException {
+        List<Move> moves = backingStateMachine.getLegalMoves(state, role);
+        List<Move> factorMoves = new ArrayList<Move>(moves.size());
+        for (Move move : moves) {
+            if (factor.containsMove(role, move)) {
+                factorMoves.add(move);
+            }
+        }
+        return factorMoves.isEmpty() ? moves : factorMoves;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves)
+    throws TransitionDefinitionException {
+        return backingStateMachine.getNextState(state, moves);
+    }
+}
@@ -0,0 +1,333 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.analysis.PropNetLatchAnalyzer;
+import org.ggp.base.util.propnet.analysis.PropNetLatches;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.GeneratedPropNet;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.compiler.CompiledPropNetCache;
+import org.ggp.base.util.propnet.factory.compiler.PropNetClassGenerator;
+import org.ggp.base.util.propnet.factory.compiler.PropNetCompiler;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.query.ProverQueryBuilder;
+
+
+/**
+ * A state machine that evaluates the propnet through a class generated and
+ * compiled for this game at runtime (see {@link PropNetClassGenerator}).
+ *
+ * Initialization fails with an exception if no compiler is available or if
+ * generating the class takes longer than the given budget, so this machine
+ * is meant to be wrapped in a {@link org.ggp.base.util.statemachine.FailsafeStateMachine}
+ * with an interpreted propnet machine as its fallback:
+ *
+ * <pre>
+ * new FailsafeStateMachine(new GeneratedPropNetStateMachine(budget),
+ *                          new CompiledPropNetStateMachine())
+ * </pre>
+ *
+ * The compiled network is read from and written to a
+ * {@link CompiledPropNetCache}, the default one unless told otherwise.
+ *
+ * This machine is not thread-safe.
+ */
+public class GeneratedPropNetStateMachine extends StateMachine {
+    /** The time allowed for generating and compiling the evaluator */
+    private final long compileBudgetMillis;
+    /** Where compiled networks are cached, or null to always build them */
+    private final CompiledPropNetCache cache;
+    /** The compiled proposition network, which fixes the component ids */
+    private CompiledPropNet net;
+    /** The generated evaluator */
+    private GeneratedPropNet evaluator;
+    /** The value of every component, indexed by id */
+    private boolean[] values;
+    /** The player roles */
+    private List<Role> roles;
+    /** The initial state, computed once during initialization */
+    private MachineState initialState;
+    /** The latches of the network and the goals they settle */
+    private PropNetLatches latches;
+    /** The state currently loaded into the bases, if no inputs are set */
+    private MachineState loadedState;
+    /** Which queries have been computed for the loaded state */
+    private boolean legalComputed, goalComputed, terminalComputed;
+
+    public GeneratedPropNetStateMachine(long compileBudgetMillis) {
+        this(compileBudgetMillis, CompiledPropNetCache.getDefaultCache());
+    }
+
+    public GeneratedPropNetStateMachine(long compileBudgetMillis, CompiledPropNetCache cache) {
+        this.compileBudgetMillis = compileBudgetMillis;
+        this.cache = cache;
+    }
+
+    @Override
+    public void initialize(List<Gdl> description) {
+        try {
+            long start = System.currentTimeMillis();
+            if (cache != null) {
+                net = cache.getOrCreate(description);
+            } else {
+                net = PropNetCompiler.compile(OptimizingPropNetFactory.create(description, Runtime.getRuntime().availableProcessors()));
+            }
+            evaluator = PropNetClassGenerator.generate(net, compileBudgetMillis);
+            GamerLogger.log("StateMachine", "Generated propnet class in " + (System.currentTimeMillis() - start) + " ms.");
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Generating the propnet class took longer than " + compileBudgetMillis + " ms", e);
+        } catch (InterruptedException e) {
+            GamerLogger.logStackTrace("StateMachine", e);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building the propnet", e);
+        }
+        values = new boolean[net.getNumComponents()];
+        for (int id = 0; id < net.getFirstComputedId(); id++) {
+            values[id] = (net.getType(id) == CompiledPropNet.CONSTANT_TRUE);
+        }
+        roles = net.getRoles();
+        latches = PropNetLatchAnalyzer.findLatches(net);
+        loadedState = null;
+
+        long[] initialBases = new long[(net.getNumBases() + 63) >>> 6];
+        for (int base : net.getInitialBases()) {
+            CompiledPropNet.set(initialBases, base);
+        }
+        initialState = net.toState(initialBases);
+    }
+
+    /**
+     * The copy shares the compiled network, the generated evaluator, which
+     * keeps no state of its own, and the latches, and gets its own value
+     * buffer.
+     */
+    @Override
+    public StateMachine copy() {
+        GeneratedPropNetStateMachine copy = new GeneratedPropNetStateMachine(compileBudgetMillis, cache);
+        copy.net = net;
+        copy.evaluator = evaluator;
+        copy.values = values.clone();
+        copy.roles = roles;
+        copy.initialState = initialState;
+        copy.latches = latches;
+        return copy;
+    }
+
+    @Override
+    public MachineState getInitialState() {
+        return initialState;
+    }
+
+    @Override
+    public List<Role> getRoles() {
+        return roles;
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state) {
+        load(state);
+        if (!terminalComputed) {
+            evaluator.computeTerminal(values);
+            terminalComputed = true;
+        }
+        int terminal = net.getTerminalId();
+        return terminal != -1 && values[terminal];
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role)
+    throws GoalDefinitionException {
+        load(state);
+        if (!goalComputed) {
+            evaluator.computeGoal(values);
+            goalComputed = true;
+        }
+        int r = roles.indexOf(role);
+        if (r == -1) {
+            throw new GoalDefinitionException(state, role);
+        }
+        int goal = -1;
+        for (int i = 0; i < net.getNumGoals(r); i++) {
+            if (values[net.getGoalId(r, i)]) {
+                if (goal != -1) {
+                    throw new GoalDefinitionException(state, role);
+                }
+                goal = net.getGoalValue(r, i);
+            }
+        }
+        if (goal == -1) {
+            throw new GoalDefinitionException(state, role);
+        }
+        return goal;
+    }
+
+    @Override
+    public List<Integer> getLatchedGoals(MachineState state) {
+        return latches.getLatchedGoals(state);
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role)
+    throws MoveDefinitionException {
+        load(state);
+        if (!legalComputed) {
+            evaluator.computeLegal(values);
+            legalComputed = true;
+        }
+        int r = roles.indexOf(role);
+        List<Move> moves = new ArrayList<Move>();
+        if (r != -1) {
+            for (int i = 0; i < net.getNumLegals(r); i++) {
+                if (values[net.getLegalId(r, i)]) {
+                    moves.add(net.getLegalMove(r, i));
+                }
+            }
+        }
+        if (moves.isEmpty()) {
+            throw new MoveDefinitionException(state, role);
+        }
+        return moves;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves)
+    throws TransitionDefinitionException {
+        markBases(state);
+        int[] marked = new int[roles.size()];
+        for (int r = 0; r < roles.size(); r++) {
+            marked[r] = net.getInputIndex(ProverQueryBuilder.toDoes(roles.get(r), moves.get(r)));
+        }
+        return computeNextState(state, marked);
+    }
+
+    // A move index is the index of the move's legal proposition in the network.
+
+    @Override
+    public Move getMove(int roleIndex, int moveIndex) {
+        return net.getLegalMove(roleIndex, moveIndex);
+    }
+
+    @Override
+    public int getMoveIndex(int roleIndex, Move move) {
+        return net.getLegalIndex(roleIndex, move);
+    }
+
+    @Override
+    public int[] getLegalMoveIndices(MachineState state, int roleIndex)
+    throws MoveDefinitionException {
+        load(state);
+        if (!legalComputed) {
+            evaluator.computeLegal(values);
+            legalComputed = true;
+        }
+        int count = 0;
+        for (int i = 0; i < net.getNumLegals(roleIndex); i++) {
+            if (values[net.getLegalId(roleIndex, i)]) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            throw new MoveDefinitionException(state, roles.get(roleIndex));
+        }
+        int[] indices = new int[count];
+        count = 0;
+        for (int i = 0; count < indices.length; i++) {
+            if (values[net.getLegalId(roleIndex, i)]) {
+                indices[count++] = i;
+            }
+        }
+        return indices;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, int[] jointMove)
+    throws TransitionDefinitionException {
+        markBases(state);
+        int[] marked = new int[jointMove.length];
+        for (int r = 0; r < jointMove.length; r++) {
+            marked[r] = net.getLegalInput(r, jointMove[r]);
+        }
+        return computeNextState(state, marked);
+    }
+
+    /**
+     * Loads the bases of the state once and then only switches the inputs
+     * from one joint move to the next.
+     */
+    @Override
+    public List<MachineState> getNextStates(MachineState state, List<int[]> jointMoves)
+    throws TransitionDefinitionException {
+        markBases(state);
+        List<MachineState> nextStates = new ArrayList<MachineState>(jointMoves.size());
+        int[] marked = new int[roles.size()];
+        for (int[] jointMove : jointMoves) {
+            for (int r = 0; r < jointMove.length; r++) {
+                marked[r] = net.getLegalInput(r, jointMove[r]);
+            }
+            nextStates.add(computeNextState(state, marked));
+        }
+        return nextStates;
+    }
+
+    /**
+     * Sets the given inputs on top of the bases of the state, computes the
+     * transitions and returns the next state, clearing the inputs again.
+     */
+    private MachineState computeNextState(MachineState state, int[] marked) {
+        for (int input : marked) {
+            if (input != -1) {
+                values[net.getInputId(input)] = true;
+            }
+        }
+        evaluator.computeNext(values);
+
+        long[] nextBases = new long[(net.getNumBases() + 63) >>> 6];
+        for (int base = 0; base < net.getNumBases(); base++) {
+            int next = net.getNextId(base);
+            if (next != -1 && values[next]) {
+                CompiledPropNet.set(nextBases, base);
+            }
+        }
+
+        for (int input : marked) {
+            if (input != -1) {
+                values[net.getInputId(input)] = false;
+            }
+        }
+        loadedState = null;
+        return net.toNextState(state, nextBases);
+    }
+
+    /**
+     * Sets the bases to the given state, unless it is already loaded. The
+     * queries themselves are computed lazily.
+     */
+    private void load(MachineState state) {
+        if (state == loadedState) {
+            return;
+        }
+        markBases(state);
+        loadedState = state;
+    }
+
+    private void markBases(MachineState state) {
+        long[] bases = net.getBaseBits(state);
+        for (int base = 0; base < net.getNumBases(); base++) {
+            values[base] = CompiledPropNet.get(bases, base);
+        }
+        legalComputed = false;
+        goalComputed = false;
+        terminalComputed = false;
+    }
+}
@@ -1,20 +1,24 @@
 package org.ggp.base.util.statemachine.implementation.propnet;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlRelation;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.propnet.architecture.Component;
 import org.ggp.base.util.propnet.architecture.PropNet;
 import org.ggp.base.util.propnet.architecture.components.Proposition;
-import org.ggp.base.util.propnet.factory.PropNetFactory;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -25,7 +29,6 @@ import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 import org.ggp.base.util.statemachine.implementation.prover.query.ProverQueryBuilder;
 
 
-@SuppressWarnings("unused")
 public class SamplePropNetStateMachine extends StateMachine {
     /** The underlying proposition network  */
     private PropNet propNet;
@@ -33,6 +36,8 @@ public class SamplePropNetStateMachine extends StateMachine {
     private List<Proposition> ordering;
     /** The player roles */
     private List<Role> roles;
+    /** The initial state, computed once during initialization */
+    private MachineState initialState;
     
     /**
      * Initializes the PropNetStateMachine. You should compute the topological
@@ -41,9 +46,16 @@ public class SamplePropNetStateMachine extends StateMachine {
      */
     @Override
     public void initialize(List<Gdl> description) {
-        propNet = PropNetFactory.create(description);
+        try {
+            propNet = OptimizingPropNetFactory.create(description);
+        } catch (InterruptedException e) {
+            GamerLogger.logStackTrace("StateMachine", e);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building the propnet", e);
+        }
         roles = propNet.getRoles();
         ordering = getOrdering();
+        initialState = computeInitialState();
     }    
     
 	/**
@@ -52,8 +64,9 @@ public class SamplePropNetStateMachine extends StateMachine {
 	 */
 	@Override
 	public boolean isTerminal(MachineState state) {
-		// TODO: Compute whether the MachineState is terminal.
-		return false;
+		markBases(state);
+		propagate();
+		return propNet.getTerminalProposition().getValue();
 	}
 	
 	/**
@@ -66,8 +79,25 @@ public class SamplePropNetStateMachine extends StateMachine {
 	@Override
 	public int getGoal(MachineState state, Role role)
 	throws GoalDefinitionException {
-		// TODO: Compute the goal for role in state.
-		return -1;
+		markBases(state);
+		propagate();
+		Set<Proposition> goals = propNet.getGoalPropositions().get(role);
+		if (goals == null) {
+			throw new GoalDefinitionException(state, role);
+		}
+		Proposition trueGoal = null;
+		for (Proposition goal : goals) {
+			if (goal.getValue()) {
+				if (trueGoal != null) {
+					throw new GoalDefinitionException(state, role);
+				}
+				trueGoal = goal;
+			}
+		}
+		if (trueGoal == null) {
+			throw new GoalDefinitionException(state, role);
+		}
+		return getGoalValue(trueGoal);
 	}
 	
 	/**
@@ -77,18 +107,38 @@ public class SamplePropNetStateMachine extends StateMachine {
 	 */
 	@Override
 	public MachineState getInitialState() {
-		// TODO: Compute the initial state.
-		return null;
+		return initialState;
 	}
-	
+
+	private MachineState computeInitialState() {
+		Set<GdlSentence> contents = new HashSet<GdlSentence>();
+		for (Proposition p : propNet.getInitialBasePropositions()) {
+			contents.add(p.getName());
+		}
+		return new MachineState(contents);
+	}
+
 	/**
 	 * Computes the legal moves for role in state.
 	 */
 	@Override
 	public List<Move> getLegalMoves(MachineState state, Role role)
 	throws MoveDefinitionException {
-		// TODO: Compute legal moves.
-		return null;
+		markBases(state);
+		propagate();
+		List<Move> moves = new ArrayList<Move>();
+		Set<Proposition> legals = propNet.getLegalPropositions().get(role);
+		if (legals != null) {
+			for (Proposition legal : legals) {
+				if (legal.getValue()) {
+					moves.add(getMoveFromProposition(legal));
+				}
+			}
+		}
+		if (moves.isEmpty()) {
+			throw new MoveDefinitionException(state, role);
+		}
+		return moves;
 	}
 	
 	/**
@@ -97,8 +147,12 @@ public class SamplePropNetStateMachine extends StateMachine {
 	@Override
 	public MachineState getNextState(MachineState state, List<Move> moves)
 	throws TransitionDefinitionException {
-		// TODO: Compute the next state.
-		return null;
+		markBases(state);
+		markInputs(moves);
+		propagate();
+		MachineState nextState = getStateFromBase();
+		clearInputs();
+		return nextState;
 	}
 	
 	/**
@@ -126,7 +180,49 @@ public class SamplePropNetStateMachine extends StateMachine {
 		// All of the propositions in the PropNet.
 		List<Proposition> propositions = new ArrayList<Proposition>(propNet.getPropositions());
 		
-	    // TODO: Compute the topological ordering.		
+		// Count the inputs of every component that must be settled before it.
+		// Edges leaving a transition belong to the next state, so the base
+		// propositions they feed are treated as sources.
+		Map<Component, Integer> unsettledInputs = new HashMap<Component, Integer>();
+		Queue<Component> settled = new LinkedList<Component>();
+		for (Component component : components) {
+			int count = 0;
+			for (Component input : component.getInputs()) {
+				if (!(input instanceof Transition)) {
+					count++;
+				}
+			}
+			unsettledInputs.put(component, count);
+			if (count == 0) {
+				settled.add(component);
+			}
+		}
+
+		// Kahn's algorithm: a component is settled once all its inputs are.
+		while (!settled.isEmpty()) {
+			Component component = settled.remove();
+			if (component instanceof Transition) {
+				continue;
+			}
+			for (Component output : component.getOutputs()) {
+				int count = unsettledInputs.get(output) - 1;
+				unsettledInputs.put(output, count);
+				if (count == 0) {
+					settled.add(output);
+					if (output instanceof Proposition) {
+						order.add((Proposition) output);
+					}
+				}
+			}
+		}
+
+		// Anything left over is part of a cycle that does not go through a
+		// transition, which a well-formed propnet never contains.
+		for (Proposition proposition : propositions) {
+			if (unsettledInputs.get(proposition) > 0) {
+				GamerLogger.logError("StateMachine", "Proposition " + proposition.getName() + " is on a cycle; it will be left out of the ordering.");
+			}
+		}
 		
 		return order;
 	}
@@ -138,6 +234,55 @@ public class SamplePropNetStateMachine extends StateMachine {
 	}
 
 	/* Helper methods */
+
+	/**
+	 * Sets the base propositions to the contents of the given state.
+	 */
+	private void markBases(MachineState state)
+	{
+		Set<GdlSentence> contents = state.getContents();
+		for (Proposition p : propNet.getBasePropositions().values())
+		{
+			p.setValue(contents.contains(p.getName()));
+		}
+	}
+
+	/**
+	 * Sets exactly the input propositions matching the given joint move.
+	 */
+	private void markInputs(List<Move> moves)
+	{
+		clearInputs();
+		Map<GdlSentence, Proposition> inputs = propNet.getInputPropositions();
+		for (GdlSentence does : toDoes(moves))
+		{
+			Proposition p = inputs.get(does);
+			if (p != null)
+			{
+				p.setValue(true);
+			}
+		}
+	}
+
+	private void clearInputs()
+	{
+		for (Proposition p : propNet.getInputPropositions().values())
+		{
+			p.setValue(false);
+		}
+	}
+
+	/**
+	 * Pushes the current base and input values forward through the network,
+	 * setting every proposition in topological order.
+	 */
+	private void propagate()
+	{
+		for (Proposition p : ordering)
+		{
+			p.setValue(p.getSingleInput().getValue());
+		}
+	}
 		
 	/**
 	 * The Input propositions are indexed by (does ?player ?action).
@@ -196,13 +341,13 @@ public class SamplePropNetStateMachine extends StateMachine {
 		Set<GdlSentence> contents = new HashSet<GdlSentence>();
 		for (Proposition p : propNet.getBasePropositions().values())
 		{
-			p.setValue(p.getSingleInput().getValue());
-			if (p.getValue())
+			// Read the transitions without overwriting the bases, since
+			// later transitions may still depend on the current values.
+			if (p.getSingleInput().getValue())
 			{
 				contents.add(p.getName());
 			}
-
 		}
 		return new MachineState(contents);
 	}
-}
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package org.ggp.base.util.statemachine.implementation.prover;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -11,6 +12,7 @@ import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.prover.Prover;
 import org.ggp.base.util.prover.aima.AimaProver;
+import org.ggp.base.util.statemachine.BaseSentenceIndex;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -26,6 +28,8 @@ public class ProverStateMachine extends StateMachine
 {
 	private MachineState initialState;
 	private Prover prover;
+	/** Numbers the base sentences, so that states are stored as bitsets */
+	private BaseSentenceIndex baseIndex;
 	private List<Role> roles;
 
 	/**
@@ -36,17 +40,37 @@ public class ProverStateMachine extends StateMachine
 		
 	}
 	
+	private ProverStateMachine(ProverStateMachine original)
+	{
+		prover = original.prover;
+		roles = original.roles;
+		baseIndex = original.baseIndex;
+		initialState = original.initialState;
+		shareMoveIndices(original);
+	}
+
+	/**
+	 * The copy shares the knowledge base, which queries only read, and the
+	 * base sentence and move indices, which are thread-safe.
+	 */
+	@Override
+	public StateMachine copy()
+	{
+		return new ProverStateMachine(this);
+	}
+
 	public void initialize(List<Gdl> description)
 	{
 		prover = new AimaProver(new HashSet<Gdl>(description));
 		roles = Role.computeRoles(description);
+		baseIndex = new BaseSentenceIndex();
 		initialState = computeInitialState();
 	}
 
 	private MachineState computeInitialState()
 	{
 		Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getInitQuery(), new HashSet<GdlSentence>());
-		return new ProverResultParser().toState(results);
+		return new ProverResultParser().toState(results, baseIndex);
 	}
 
 	@Override
@@ -105,9 +129,51 @@ public class ProverStateMachine extends StateMachine
 			}
 		}
 
-		return new ProverResultParser().toState(results);
+		return new ProverResultParser().toState(results, baseIndex);
 	}	
 
+	/**
+	 * Builds the context of the state once and only swaps the (does ...)
+	 * sentences from one joint move to the next.
+	 */
+	@Override
+	public List<MachineState> getNextStates(MachineState state, List<int[]> jointMoves) throws TransitionDefinitionException
+	{
+		Set<GdlSentence> context = new HashSet<GdlSentence>(state.getContents());
+		GdlSentence[] does = new GdlSentence[roles.size()];
+		ProverResultParser parser = new ProverResultParser();
+		List<MachineState> nextStates = new ArrayList<MachineState>(jointMoves.size());
+		for (int[] jointMove : jointMoves)
+		{
+			for (int i = 0; i < roles.size(); i++)
+			{
+				does[i] = ProverQueryBuilder.toDoes(roles.get(i), getMove(i, jointMove[i]));
+				context.add(does[i]);
+			}
+			Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getNextQuery(), context);
+			for (GdlSentence sentence : does)
+			{
+				context.remove(sentence);
+			}
+
+			for (GdlSentence sentence : results)
+			{
+				if (!sentence.isGround())
+				{
+					List<Move> moves = new ArrayList<Move>(roles.size());
+					for (int i = 0; i < roles.size(); i++)
+					{
+						moves.add(getMove(i, jointMove[i]));
+					}
+					throw new TransitionDefinitionException(state, moves);
+				}
+			}
+
+			nextStates.add(parser.toState(results, baseIndex));
+		}
+		return nextStates;
+	}
+
 	@Override
 	public List<Role> getRoles()
 	{
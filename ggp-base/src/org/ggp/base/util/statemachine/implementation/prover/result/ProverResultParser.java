@@ -9,6 +9,7 @@ import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.statemachine.BaseSentenceIndex;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -43,12 +44,26 @@ public final class ProverResultParser
 	}
 
 	public MachineState toState(Set<GdlSentence> results)
+	{
+		return new MachineState(toTrues(results));
+	}
+
+	/**
+	 * Like {@link #toState(Set)}, but stores the state as a bitset over the
+	 * given index.
+	 */
+	public MachineState toState(Set<GdlSentence> results, BaseSentenceIndex index)
+	{
+		return index.toState(toTrues(results));
+	}
+
+	private Set<GdlSentence> toTrues(Set<GdlSentence> results)
 	{
 		Set<GdlSentence> trues = new HashSet<GdlSentence>();
 		for (GdlSentence result : results)
 		{
 			trues.add(GdlPool.getRelation(TRUE, new GdlTerm[] { result.get(0) }));
 		}
-		return new MachineState(trues);
+		return trues;
 	}
 }
\ No newline at end of file
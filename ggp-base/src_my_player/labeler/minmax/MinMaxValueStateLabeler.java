@@ -20,6 +20,7 @@ public final class MinMaxValueStateLabeler implements IStateLabeler {
 	private StateMachine machine;
 	private int maxPlayerIndex;
 	private int minPlayerIndex;
+	private final int[] goals = new int[2];
 
 	public MinMaxValueStateLabeler(StateMachine machine, Role maxplayer) {
 		this.machine = machine;
@@ -31,9 +32,13 @@ public final class MinMaxValueStateLabeler implements IStateLabeler {
 	@Override
 	public LabeledState label(MyState state) throws GoalDefinitionException {
 		if (machine.isTerminal(state.getState())) {
-			List<Integer> goals = machine.getGoals(state.getState());
+			machine.getGoals(state.getState(), goals);
+			return createLabel(state, goals[maxPlayerIndex] - goals[minPlayerIndex]);
+		}
+		List<Integer> latchedGoals = machine.getLatchedGoals(state.getState());
+		if (latchedGoals != null) {
 			return createLabel(state,
-					goals.get(maxPlayerIndex) - goals.get(minPlayerIndex));
+					latchedGoals.get(maxPlayerIndex) - latchedGoals.get(minPlayerIndex));
 		} else {
 			return null;
 		}
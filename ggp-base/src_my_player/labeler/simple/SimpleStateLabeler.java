@@ -1,5 +1,7 @@
 package labeler.simple;
 
+import java.util.List;
+
 import labeler.IStateLabeler;
 
 import org.ggp.base.util.statemachine.Role;
@@ -23,6 +25,10 @@ public final class SimpleStateLabeler implements IStateLabeler {
 	public LabeledState label(MyState state) throws GoalDefinitionException {
 		if (machine.isTerminal(state.getState())) {
 			return createLabel(state, machine.getGoal(state.getState(), player));
+		}
+		List<Integer> latched = machine.getLatchedGoals(state.getState());
+		if (latched != null) {
+			return createLabel(state, latched.get(machine.getRoles().indexOf(player)));
 		} else {
 			return null;
 		}
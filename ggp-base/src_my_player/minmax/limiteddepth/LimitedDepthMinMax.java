@@ -4,7 +4,6 @@ import java.util.List;
 import java.util.Map.Entry;
 
 import minmax.IMinMax;
-import minmax.limiteddepth.MinMaxCache.CacheEntry;
 
 import org.ggp.base.util.observer.Event;
 import org.ggp.base.util.observer.Observer;
@@ -22,6 +21,12 @@ import classifier.IClassifier.ClassifierValue;
 
 public abstract class LimitedDepthMinMax implements IMinMax {
 
+	/**
+	 * Height under which results that don't depend on the heuristic are
+	 * cached, so that they satisfy a search of any depth.
+	 */
+	private static final int TERMINAL_STATE_DEPTH = 200;
+
 	public static class MinMaxEntry {
 
 		public final ClassifierValue value;
@@ -43,7 +48,7 @@ public abstract class LimitedDepthMinMax implements IMinMax {
 	protected final Role minPlayer;
 	protected final Role maxPlayer;
 	protected final MinMaxReporter reporter;
-	private final MinMaxCache<MinMaxEntry> cache;
+	private final TranspositionTable<ClassifierValue> cache;
 
 	public LimitedDepthMinMax(StateMachine machine, Role maxPlayer,
 			IClassifier classifier, int depth, boolean cached) {
@@ -56,7 +61,7 @@ public abstract class LimitedDepthMinMax implements IMinMax {
 		this.classifier = classifier;
 		this.minMaxDepth = depth;
 		this.reporter = new MinMaxReporter();
-		this.cache = !cached ? null : new MinMaxCache<MinMaxEntry>();
+		this.cache = !cached ? null : new TranspositionTable<ClassifierValue>();
 	}
 
 	/**
@@ -69,13 +74,15 @@ public abstract class LimitedDepthMinMax implements IMinMax {
 	}
 
 	/**
-	 * Check if a state is terminal.
+	 * Check if a state is terminal, or if latches already settle its goals so
+	 * that searching below it can't change its value.
 	 * 
 	 * @param state
 	 * @return
 	 */
 	protected final boolean isTerminal(MyState state) {
-		return machine.isTerminal(state.getState());
+		return machine.isTerminal(state.getState())
+				|| machine.getLatchedGoals(state.getState()) != null;
 	}
 
 	/**
@@ -130,7 +137,7 @@ public abstract class LimitedDepthMinMax implements IMinMax {
 	}
 
 	/**
-	 * Add an entry to cache under a state(if exists).
+	 * Add an exact entry to cache under a state(if exists).
 	 * 
 	 * @param state
 	 *            Key in cache.
@@ -141,18 +148,35 @@ public abstract class LimitedDepthMinMax implements IMinMax {
 	 */
 	protected final void addToCache(MyState state, MinMaxEntry entry,
 			int height) {
+		addToCache(state, entry, height, TranspositionTable.EXACT);
+	}
+
+	/**
+	 * Add an entry to cache under a state(if exists).
+	 * 
+	 * @param state
+	 *            Key in cache.
+	 * @param entry
+	 *            Value to be cached.
+	 * @param height
+	 *            Height of the result in search tree.
+	 * @param bound
+	 *            Whether the value is exact or a bound, see
+	 *            {@link TranspositionTable}.
+	 */
+	protected final void addToCache(MyState state, MinMaxEntry entry,
+			int height, byte bound) {
 		if (cache != null) {
-			if (entry.noHeuristic) {
-				cache.put(state, new CacheEntry<MinMaxEntry>(entry,
-						CacheEntry.TERMINAL_STATE_DEPTH));
-			} else {
-				cache.put(state, new CacheEntry<MinMaxEntry>(entry, height));
-			}
+			int move = (entry.move == null) ? -1 : machine.getMoveIndex(
+					getRoleIndex(state), entry.move);
+			cache.put(state.getState().getZobristKey(), entry.value,
+					entry.noHeuristic ? TERMINAL_STATE_DEPTH : height, move,
+					bound);
 		}
 	}
 
 	/**
-	 * Search an entry in the cache.
+	 * Search an exact entry in the cache.
 	 * 
 	 * @param state
 	 *            What we search.
@@ -160,12 +184,67 @@ public abstract class LimitedDepthMinMax implements IMinMax {
 	 *            What height we look for.
 	 * @return entry exists or null otherwise.
 	 */
-	protected final MinMaxEntry searchCache(MyState state, int height) {
-		if (cache == null || !cache.contains(state, height)) {
+	protected final MinMaxEntry searchCache(MyState state, int height)
+			throws ClassificationException {
+		return searchCache(state, height, null, null);
+	}
+
+	/**
+	 * Search an entry in the cache that settles a search of the state with
+	 * the given window: an exact value, or a bound that falls outside the
+	 * window.
+	 * 
+	 * @param state
+	 *            What we search.
+	 * @param height
+	 *            What height we look for.
+	 * @param alpha
+	 *            Lower end of the window, or null if there is none.
+	 * @param beta
+	 *            Upper end of the window, or null if there is none.
+	 * @return entry exists or null otherwise.
+	 */
+	protected final MinMaxEntry searchCache(MyState state, int height,
+			ClassifierValue alpha, ClassifierValue beta)
+			throws ClassificationException {
+		if (cache == null) {
+			return null;
+		}
+		int slot = cache.find(state.getState().getZobristKey());
+		if (slot == -1 || cache.getDepth(slot) < height) {
 			return null;
 		}
+		ClassifierValue value = cache.getValue(slot);
+		switch (cache.getBound(slot)) {
+		case TranspositionTable.LOWER:
+			if (beta == null || isBetterThan(beta, value, maxPlayer)) {
+				return null;
+			}
+			break;
+		case TranspositionTable.UPPER:
+			if (alpha == null || isBetterThan(value, alpha, maxPlayer)) {
+				return null;
+			}
+			break;
+		default:
+			break;
+		}
 		reporter.cacheHit();
-		return cache.get(state);
+		int move = cache.getMove(slot);
+		return new MinMaxEntry(value, (move == -1) ? null : machine.getMove(
+				getRoleIndex(state), move),
+				cache.getDepth(slot) >= TERMINAL_STATE_DEPTH);
+	}
+
+	/**
+	 * Return the number of results in the cache.
+	 */
+	protected final int getCacheSize() {
+		return (cache == null) ? 0 : cache.size();
+	}
+
+	private int getRoleIndex(MyState state) {
+		return machine.getRoleIndices().get(state.getRole());
 	}
 
 	@Override
@@ -5,7 +5,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
 
 import org.ggp.base.util.statemachine.MachineState;
@@ -26,22 +25,39 @@ public final class StateExpander {
 			MyState state, IClassifier classifier, Role maxPlayer)
 			throws MoveDefinitionException, TransitionDefinitionException,
 			ClassificationException {
-		Map<Move, List<MachineState>> nextStates = machine.getNextStates(
-				state.getState(), state.getRole());
-		List<Entry<Move, MyState>> childrenStates = new ArrayList<Entry<Move, MyState>>(
-				nextStates.size());
-		for (Entry<Move, List<MachineState>> nextState : nextStates.entrySet()) {
-			assert (nextState.getValue().size() == 1);
-			MyState childState = MyState.createChild(state, nextState
-					.getValue().get(0));
-			childrenStates.add(new SimpleEntry<Move, MyState>(nextState
-					.getKey(), childState));
-		}
+		List<Entry<Move, MyState>> childrenStates = getChildren(machine, state);
 		sortMoves(childrenStates, classifier, !state.getRole()
 				.equals(maxPlayer));
 		return childrenStates;
 	}
 
+	/**
+	 * Returns a child for every legal joint move, in the machine's order,
+	 * keyed by the move of the player in control. The other players must have
+	 * a single legal move.
+	 */
+	public static List<Entry<Move, MyState>> getChildren(StateMachine machine,
+			MyState state) throws MoveDefinitionException,
+			TransitionDefinitionException {
+		MachineState machineState = state.getState();
+		int roleIndex = machine.getRoleIndices().get(state.getRole());
+		// All children are needed to sort them, so they are computed in a
+		// single batch.
+		List<int[]> jointMoves = machine.getLegalJointMoveIndices(machineState);
+		List<MachineState> nextStates = machine.getNextStates(machineState,
+				jointMoves);
+		List<Entry<Move, MyState>> childrenStates = new ArrayList<Entry<Move, MyState>>(
+				jointMoves.size());
+		for (int i = 0; i < jointMoves.size(); i++) {
+			MyState childState = MyState.createChild(state, nextStates.get(i));
+			childrenStates.add(new SimpleEntry<Move, MyState>(machine.getMove(
+					roleIndex, jointMoves.get(i)[roleIndex]), childState));
+		}
+		assert (childrenStates.size() == machine.getLegalMoveIndices(
+				machineState, roleIndex).length);
+		return childrenStates;
+	}
+
 	private static class Comparer implements Comparator<Entry<Move, MyState>> {
 
 		private IClassifier classifier;
@@ -0,0 +1,167 @@
+package minmax.limiteddepth;
+
+import java.util.Arrays;
+
+/**
+ * Transposition table for the limited depth searches, keyed by the Zobrist key
+ * of each state. The table is allocated once, with a power-of-two number of
+ * buckets, and keeps each field of its entries in a primitive array, so
+ * storing a result allocates nothing and the table never grows.
+ *
+ * Each bucket has two slots. The first keeps the deepest result that hashed
+ * to the bucket, the second the most recent one, so deep results survive a
+ * flood of shallow ones without shutting newer results out.
+ *
+ * Not thread-safe; each search keeps its own table.
+ *
+ * @param <V>
+ *            Type of the cached values.
+ */
+public final class TranspositionTable<V> {
+
+	/** The value is the exact value of the state. */
+	public static final byte EXACT = 0;
+	/** The value is a lower bound, from the max player's point of view. */
+	public static final byte LOWER = 1;
+	/** The value is an upper bound, from the max player's point of view. */
+	public static final byte UPPER = 2;
+
+	/** Default table size, in entries. */
+	public static final int DEFAULT_LOG2_SIZE = 19;
+
+	private final long[] keys;
+	private final int[] depths;
+	private final int[] moves;
+	private final byte[] bounds;
+	/** The value of each slot, or null if the slot is empty. */
+	private final Object[] values;
+	private final int bucketMask;
+	private int size;
+
+	public TranspositionTable() {
+		this(DEFAULT_LOG2_SIZE);
+	}
+
+	/**
+	 * @param log2Size
+	 *            Base 2 logarithm of the number of entries, at least 1.
+	 */
+	public TranspositionTable(int log2Size) {
+		int numEntries = 1 << log2Size;
+		this.keys = new long[numEntries];
+		this.depths = new int[numEntries];
+		this.moves = new int[numEntries];
+		this.bounds = new byte[numEntries];
+		this.values = new Object[numEntries];
+		this.bucketMask = (numEntries >>> 1) - 1;
+	}
+
+	/**
+	 * Return the first slot of the key's bucket.
+	 */
+	private int bucket(long key) {
+		// Zobrist keys are uniformly distributed, so the high bits are as
+		// good as any; fold them in for keys that aren't.
+		return (((int) (key ^ (key >>> 32))) & bucketMask) << 1;
+	}
+
+	/**
+	 * Return the slot holding the key, or -1 if it isn't in the table.
+	 */
+	public int find(long key) {
+		int slot = bucket(key);
+		if (values[slot] != null && keys[slot] == key) {
+			return slot;
+		}
+		if (values[slot + 1] != null && keys[slot + 1] == key) {
+			return slot + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Store a result. A result that is shallower than the one already stored
+	 * for the same key is dropped, and so is a bound that is only as deep as
+	 * a stored exact value.
+	 *
+	 * @param key
+	 *            Zobrist key of the state.
+	 * @param depth
+	 *            Height of the result in the search tree.
+	 * @param move
+	 *            Index of the best move, or -1 if there is none.
+	 * @param bound
+	 *            One of {@link #EXACT}, {@link #LOWER} and {@link #UPPER}.
+	 */
+	public void put(long key, V value, int depth, int move, byte bound) {
+		int slot = find(key);
+		if (slot != -1) {
+			if (depths[slot] > depth) {
+				return;
+			}
+			if (depths[slot] == depth && bounds[slot] == EXACT && bound != EXACT) {
+				// A bound from the same depth tells less than the exact value.
+				return;
+			}
+		} else {
+			slot = bucket(key);
+			if (values[slot] != null && depths[slot] > depth) {
+				// The deeper result keeps the first slot.
+				slot++;
+			} else if (values[slot] != null) {
+				// Demote the first slot's result, replacing the second's.
+				copy(slot, slot + 1);
+			}
+			if (values[slot] == null) {
+				size++;
+			}
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		depths[slot] = depth;
+		moves[slot] = move;
+		bounds[slot] = bound;
+	}
+
+	private void copy(int from, int to) {
+		if (values[to] == null) {
+			size++;
+		}
+		keys[to] = keys[from];
+		values[to] = values[from];
+		depths[to] = depths[from];
+		moves[to] = moves[from];
+		bounds[to] = bounds[from];
+		values[from] = null;
+		size--;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V getValue(int slot) {
+		return (V) values[slot];
+	}
+
+	public int getDepth(int slot) {
+		return depths[slot];
+	}
+
+	public int getMove(int slot) {
+		return moves[slot];
+	}
+
+	public byte getBound(int slot) {
+		return bounds[slot];
+	}
+
+	/**
+	 * Return the number of results in the table.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+}
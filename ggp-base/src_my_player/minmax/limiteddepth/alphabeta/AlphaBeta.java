@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.Map.Entry;
 
 import minmax.limiteddepth.LimitedDepthMinMax;
+import minmax.limiteddepth.TranspositionTable;
 
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -41,7 +42,7 @@ public final class AlphaBeta extends LimitedDepthMinMax {
 		try {
 			move = alphabeta(state, minMaxDepth, null, null).move;
 			long endTime = System.currentTimeMillis();
-			reporter.reportAndReset(move, 0, minMaxDepth, endTime - startTime);
+			reporter.reportAndReset(move, getCacheSize(), minMaxDepth, endTime - startTime);
 			return move;
 		} catch (ClassificationException e) {
 			e.printStackTrace();
@@ -63,7 +64,7 @@ public final class AlphaBeta extends LimitedDepthMinMax {
 			throw new InterruptedException();
 		}
 		reporter.exploreNode();
-		MinMaxEntry minmaxEntry = searchCache(state, depth);
+		MinMaxEntry minmaxEntry = searchCache(state, depth, alpha, beta);
 		if (minmaxEntry != null) {
 			return minmaxEntry;
 		} else if (isTerminal(state)) {
@@ -96,6 +97,9 @@ public final class AlphaBeta extends LimitedDepthMinMax {
 			GoalDefinitionException, ClassificationException, MinMaxException,
 			InterruptedException {
 		MinMaxEntry bestEntry = null;
+		ClassifierValue windowAlpha = alpha;
+		ClassifierValue windowBeta = beta;
+		boolean cutoff = false;
 		List<Entry<Move, MyState>> children = expand(state);
 		reporter.expandNode(children.size());
 		int nodesVisited = 0;
@@ -121,13 +125,34 @@ public final class AlphaBeta extends LimitedDepthMinMax {
 			if (alpha != null && beta != null
 					&& !isBetterThan(beta, alpha, maxPlayer)) {
 				reporter.prune(children.size() - nodesVisited);
+				cutoff = true;
 				break;
 			}
 		}
-		addToCache(state, bestEntry, depth);
+		addToCache(state, bestEntry, depth, getBound(state, bestEntry, windowAlpha, windowBeta, cutoff));
 		return bestEntry;
 	}
 
+	/**
+	 * Tell whether the value a node was searched to is exact, or only a bound
+	 * because it fell outside the node's window.
+	 */
+	private byte getBound(MyState state, MinMaxEntry bestEntry,
+			ClassifierValue windowAlpha, ClassifierValue windowBeta,
+			boolean cutoff) throws ClassificationException {
+		boolean maxNode = state.getRole().equals(maxPlayer);
+		if (cutoff) {
+			return maxNode ? TranspositionTable.LOWER : TranspositionTable.UPPER;
+		} else if (maxNode && windowAlpha != null
+				&& !isBetterThan(bestEntry.value, windowAlpha, maxPlayer)) {
+			return TranspositionTable.UPPER;
+		} else if (!maxNode && windowBeta != null
+				&& !isBetterThan(windowBeta, bestEntry.value, maxPlayer)) {
+			return TranspositionTable.LOWER;
+		}
+		return TranspositionTable.EXACT;
+	}
+
 	@Override
 	public void stop() {
 		execute  = false;
@@ -1,12 +1,9 @@
 package minmax.limiteddepth.simple;
 
 
-import java.util.List;
-import java.util.Map.Entry;
-import java.util.Set;
-
 import minmax.limiteddepth.LimitedDepthMinMax;
 
+import org.ggp.base.util.statemachine.JointMoveIterator;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -50,7 +47,7 @@ public final class MinMax extends LimitedDepthMinMax {
 		try {
 			move = minmax(state, minMaxDepth).move;
 			long endTime = System.currentTimeMillis();
-			reporter.reportAndReset(move, 0, minMaxDepth, endTime - startTime);
+			reporter.reportAndReset(move, getCacheSize(), minMaxDepth, endTime - startTime);
 			return move;
 		} catch (ClassificationException e) {
 			e.printStackTrace();
@@ -96,19 +93,21 @@ public final class MinMax extends LimitedDepthMinMax {
 	private MinMaxEntry executeMove(MyState state, int depth) throws MoveDefinitionException,
 			TransitionDefinitionException, GoalDefinitionException, ClassificationException, MinMaxException, InterruptedException {
 		MinMaxEntry bestEntry = null;
-		Set<Entry<Move, List<MachineState>>> children = machine.getNextStates(
-				state.getState(), state.getRole()).entrySet();
+		MachineState machineState = state.getState();
+		int roleIndex = machine.getRoleIndices().get(state.getRole());
+		// Children are computed one at a time, as the search reaches them.
+		JointMoveIterator children = machine.getLegalJointMoveIterator(machineState);
 		reporter.expandNode(children.size());
-		for (Entry<Move, List<MachineState>> move : children) {
-			assert (move.getValue().size() == 1);
-			MachineState nextMachineState = move.getValue().get(0);
-			MyState nextState = MyState.createChild(state, nextMachineState);
+		while (children.hasNext()) {
+			int[] jointMove = children.next();
+			Move move = machine.getMove(roleIndex, jointMove[roleIndex]);
+			MyState nextState = MyState.createChild(state, machine.getNextState(machineState, jointMove));
 			MinMaxEntry nextEntry = minmax(nextState, depth - 1);
 			if(bestEntry == null){
-				bestEntry = new MinMaxEntry(nextEntry.value, move.getKey(), nextEntry.noHeuristic);
+				bestEntry = new MinMaxEntry(nextEntry.value, move, nextEntry.noHeuristic);
 			}
 			else if(isBetterThan(nextEntry, bestEntry, state.getRole())) {
-				bestEntry = new MinMaxEntry (nextEntry.value, move.getKey(), nextEntry.noHeuristic);
+				bestEntry = new MinMaxEntry (nextEntry.value, move, nextEntry.noHeuristic);
 			}
 		}
 		addToCache(state, bestEntry, depth);
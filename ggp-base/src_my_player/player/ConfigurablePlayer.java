@@ -1,6 +1,8 @@
 package player;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 import labeler.IStateLabeler;
 import minmax.IMinMax;
@@ -12,17 +14,25 @@ import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
 import org.ggp.base.player.gamer.exception.GameAnalysisException;
 import org.ggp.base.player.gamer.statemachine.StateMachineGamer;
 import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.GameArtifactStore;
+import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
-import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.cache.ConcurrentCachedStateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
-import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.GeneratedPropNetStateMachine;
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
 
 import playerdetails.ConfigurablePlayerDetailPanel;
 import simulator.ISimulator;
+import simulator.SimulationCorpus;
+import states.LabeledState;
 import states.MyState;
 import utils.Verbose;
 import weka.classifiers.Classifier;
@@ -32,6 +42,12 @@ import classifier.IClassifierFactory.ClassifierBuildingException;
 
 public class ConfigurablePlayer extends StateMachineGamer {
 
+	/** Time allowed for compiling the game-specific propnet class. */
+	private static final long PROPNET_COMPILE_BUDGET = 10000;
+
+	/** Name of the opening book in the artifact store. */
+	private static final String OPENING_BOOK = "openings";
+
 	private static int numInstances = 0;
 
 	private final int myNumber;
@@ -39,6 +55,9 @@ public class ConfigurablePlayer extends StateMachineGamer {
 	private final DetailPanel detatilPanel;
 	private IMinMax minmax;
 	private int turnNumber;
+	/** Key of the current game in the artifact store. */
+	private String gameKey;
+	private OpeningBook openingBook;
 
 	private boolean execute;
 
@@ -51,7 +70,10 @@ public class ConfigurablePlayer extends StateMachineGamer {
 
 	@Override
 	public StateMachine getInitialStateMachine() {
-		return new CachedStateMachine(new ProverStateMachine());
+		return new ConcurrentCachedStateMachine(new FailsafeStateMachine(
+				new GeneratedPropNetStateMachine(PROPNET_COMPILE_BUDGET),
+				new CompiledPropNetStateMachine(
+						CompiledPropNetStateMachine.Propagation.DIFFERENTIAL)));
 	}
 
 	@Override
@@ -80,7 +102,23 @@ public class ConfigurablePlayer extends StateMachineGamer {
 				Verbose.PLAYER);
 		int exampleAmount = configurationPanel.getExampleAmount();
 		Verbose.printVerbose("success", Verbose.PLAYER);
-		for (int counter = 0; counter < exampleAmount && execute; counter++) {
+		Game game = getMatch().getGame();
+		GameArtifactStore store = GameArtifactStore.getDefaultStore();
+		gameKey = GameArtifactStore.getGameKey(game);
+		openingBook = store.load(gameKey, OPENING_BOOK, OpeningBook.class);
+		if (openingBook == null) {
+			openingBook = new OpeningBook();
+		}
+		// Simulations of earlier matches labeled the same way count towards
+		// the examples of this one.
+		String corpusName = "corpus-" + labeler.getClass().getSimpleName()
+				+ "-" + simulator.getClass().getSimpleName();
+		SimulationCorpus storedCorpus = store.load(gameKey, corpusName,
+				SimulationCorpus.class);
+		int storedAmount = (storedCorpus == null) ? 0 : storedCorpus
+				.getSimulations();
+		int counter;
+		for (counter = storedAmount; counter < exampleAmount && execute; counter++) {
 			simulator.Simulate(initalState);
 			Verbose.printVerbose("current simulation is: " + counter + " of: "
 					+ exampleAmount, Verbose.CURRENT_SIMULATION_VERBOSE);
@@ -88,20 +126,39 @@ public class ConfigurablePlayer extends StateMachineGamer {
 		
 		if(!execute) return;
 
+		Set<GdlSentence> contents = simulator.getAllContents();
+		Collection<LabeledState> labeledStates = simulator.getLabeledStates();
+		int simulated = Math.max(0, counter - storedAmount);
+		if (storedCorpus != null || simulated > 0) {
+			SimulationCorpus corpus = SimulationCorpus.merge(storedCorpus,
+					simulated, contents, labeledStates, machine.getRoles());
+			if (simulated > 0) {
+				store.save(gameKey, corpusName, corpus);
+			}
+			if (storedCorpus != null) {
+				try {
+					contents = corpus.getAllContents();
+					labeledStates = corpus.getLabeledStates(machine.getRoles());
+				} catch (GdlFormatException e) {
+					e.printStackTrace();
+				} catch (SymbolFormatException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
 		Verbose.printVerboseNoNewLine("getting classifier type... ",
 				Verbose.PLAYER);
 		Classifier wekaClassifier = configurationPanel.getWekaClassifer();
 		Verbose.printVerbose("success", Verbose.PLAYER);
-		Game game = getMatch().getGame();
 		IClassifierFactory classifierFactory = configurationPanel
 				.getClassifierFactory();
 		try {
 			Verbose.printVerboseNoNewLine("getting classifier... ",
 					Verbose.PLAYER);
 			IClassifier classifier = classifierFactory.createClassifier(
-					labeler, game.getName(), simulator.getAllContents(),
-					game.getRules(), simulator.getLabeledStates(),
-					wekaClassifier);
+					labeler, game.getName(), contents, game.getRules(),
+					labeledStates, wekaClassifier);
 			Verbose.printVerbose("success", Verbose.PLAYER);
 			Verbose.printVerboseNoNewLine("getting minmax... ", Verbose.PLAYER);
 			this.minmax = configurationPanel.getMinmaxFactory().createMinMax(
@@ -151,12 +208,19 @@ public class ConfigurablePlayer extends StateMachineGamer {
 				minmax.setTimeout(timeout - 1500);
 				selection = minmax.getMove(new MyState(getCurrentState(),
 						turnNumber, getRole(), getOponent()));
+				if (selection != null
+						&& turnNumber < OpeningBook.OPENING_TURNS) {
+					openingBook.put(getCurrentState(), selection);
+				}
 			}
 		} catch (MinMaxException e) {
 			e.printStackTrace();
 		} catch (InterruptedException e) {
 			// computation timed out
 		} finally {
+			if (selection == null && openingBook != null) {
+				selection = openingBook.get(getCurrentState(), moves);
+			}
 			if (selection == null) {
 				selection = moves.get(0);
 			}
@@ -181,6 +245,7 @@ public class ConfigurablePlayer extends StateMachineGamer {
 	@Override
 	public void stateMachineStop() {
 		execute = false;
+		saveOpeningBook();
 		minmax.clear();
 		minmax.stop();
 	}
@@ -188,10 +253,18 @@ public class ConfigurablePlayer extends StateMachineGamer {
 	@Override
 	public void stateMachineAbort() {
 		execute = false;
+		saveOpeningBook();
 		minmax.clear();
 		minmax.stop();
 	}
 
+	private void saveOpeningBook() {
+		if (openingBook != null && openingBook.size() > 0) {
+			GameArtifactStore.getDefaultStore().save(gameKey, OPENING_BOOK,
+					openingBook);
+		}
+	}
+
 	@Override
 	public void analyze(Game g, long timeout) throws GameAnalysisException {
 		// do nothing (not supposed to be implemented)
@@ -0,0 +1,64 @@
+package player;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+
+/**
+ * Moves chosen by search in the first turns of earlier matches of a game, to
+ * fall back on when the search doesn't finish in time. States and moves are
+ * kept as GDL text so that the book can be stored between matches.
+ */
+final class OpeningBook implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Number of turns from the start of a match that the book covers. */
+	static final int OPENING_TURNS = 8;
+
+	private final Map<Set<String>, String> moves = new HashMap<Set<String>, String>();
+
+	/**
+	 * Record the move chosen in a state.
+	 */
+	synchronized void put(MachineState state, Move move) {
+		moves.put(toKey(state), move.toString());
+	}
+
+	/**
+	 * Return the move recorded for a state, if it is one of the legal moves.
+	 *
+	 * @return The move, or null if none is recorded.
+	 */
+	synchronized Move get(MachineState state, List<Move> legalMoves) {
+		String recorded = moves.get(toKey(state));
+		if (recorded != null) {
+			for (Move move : legalMoves) {
+				if (move.toString().equals(recorded)) {
+					return move;
+				}
+			}
+		}
+		return null;
+	}
+
+	synchronized int size() {
+		return moves.size();
+	}
+
+	private static Set<String> toKey(MachineState state) {
+		Set<String> key = new HashSet<String>();
+		for (GdlSentence sentence : state.getContents()) {
+			key.add(sentence.toString());
+		}
+		return key;
+	}
+
+}
@@ -0,0 +1,188 @@
+package simulator;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
+
+import states.LabeledState;
+import states.MyState;
+
+/**
+ * The results of simulating a game, in a form that can be stored between
+ * matches: the state contents encountered and the labeled states found,
+ * written as GDL text, and the number of simulations they came from.
+ *
+ * A corpus is immutable; {@link #merge(SimulationCorpus, int, Set,
+ * Collection, List)} makes a new one out of an old one and the results of
+ * further simulations.
+ */
+public final class SimulationCorpus implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * A labeled state, with its roles as indices into the roles of the game.
+	 */
+	private static final class StoredState implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final String[] contents;
+		final int turn;
+		final int role;
+		final int oponent;
+		final double value;
+
+		StoredState(LabeledState labeled, List<Role> roles) {
+			MyState state = labeled.getState();
+			this.contents = toStrings(state.getContents());
+			this.turn = state.getTurnNumber();
+			this.role = roles.indexOf(state.getRole());
+			this.oponent = roles.indexOf(state.getOponent());
+			this.value = labeled.getValue();
+		}
+	}
+
+	private final int simulations;
+	private final String[] contents;
+	private final StoredState[] states;
+
+	private SimulationCorpus(int simulations, String[] contents,
+			StoredState[] states) {
+		this.simulations = simulations;
+		this.contents = contents;
+		this.states = states;
+	}
+
+	/**
+	 * Create a corpus out of the results of simulations.
+	 *
+	 * @param simulations
+	 *            Number of simulations run.
+	 * @param roles
+	 *            Roles of the game.
+	 */
+	public static SimulationCorpus create(int simulations,
+			Set<GdlSentence> contents, Collection<LabeledState> labeledStates,
+			List<Role> roles) {
+		return merge(null, simulations, contents, labeledStates, roles);
+	}
+
+	/**
+	 * Create a corpus out of a stored corpus and the results of further
+	 * simulations. A state labeled in both keeps the label of the further
+	 * simulations.
+	 *
+	 * @param stored
+	 *            Stored corpus, or null if there is none.
+	 * @param simulations
+	 *            Number of further simulations run.
+	 */
+	public static SimulationCorpus merge(SimulationCorpus stored,
+			int simulations, Set<GdlSentence> contents,
+			Collection<LabeledState> labeledStates, List<Role> roles) {
+		Set<String> mergedContents = new HashSet<String>();
+		Map<Set<String>, StoredState> mergedStates = new LinkedHashMap<Set<String>, StoredState>();
+		if (stored != null) {
+			simulations += stored.simulations;
+			for (String sentence : stored.contents) {
+				mergedContents.add(sentence);
+			}
+			for (StoredState state : stored.states) {
+				mergedStates.put(toSet(state.contents), state);
+			}
+		}
+		for (GdlSentence sentence : contents) {
+			mergedContents.add(sentence.toString());
+		}
+		for (LabeledState labeled : labeledStates) {
+			StoredState state = new StoredState(labeled, roles);
+			mergedStates.put(toSet(state.contents), state);
+		}
+		return new SimulationCorpus(simulations,
+				mergedContents.toArray(new String[mergedContents.size()]),
+				mergedStates.values().toArray(
+						new StoredState[mergedStates.size()]));
+	}
+
+	/**
+	 *
+	 * @return Number of simulations the corpus came from.
+	 */
+	public int getSimulations() {
+		return simulations;
+	}
+
+	/**
+	 *
+	 * @return All state contents encountered during the simulations.
+	 * @throws SymbolFormatException
+	 * @throws GdlFormatException
+	 */
+	public Set<GdlSentence> getAllContents() throws GdlFormatException,
+			SymbolFormatException {
+		return toSentences(contents);
+	}
+
+	/**
+	 *
+	 * @param roles
+	 *            Roles of the game, in the order of the machine that
+	 *            simulated it.
+	 * @return The labeled states found during the simulations.
+	 * @throws SymbolFormatException
+	 * @throws GdlFormatException
+	 */
+	public List<LabeledState> getLabeledStates(List<Role> roles)
+			throws GdlFormatException, SymbolFormatException {
+		List<LabeledState> labeledStates = new ArrayList<LabeledState>(
+				states.length);
+		for (StoredState state : states) {
+			MachineState machineState = new MachineState(
+					toSentences(state.contents));
+			labeledStates.add(new LabeledState(new MyState(machineState,
+					state.turn, roles.get(state.role),
+					roles.get(state.oponent)), state.value));
+		}
+		return labeledStates;
+	}
+
+	private static String[] toStrings(Set<GdlSentence> sentences) {
+		String[] strings = new String[sentences.size()];
+		int i = 0;
+		for (GdlSentence sentence : sentences) {
+			strings[i++] = sentence.toString();
+		}
+		return strings;
+	}
+
+	private static Set<String> toSet(String[] strings) {
+		Set<String> set = new HashSet<String>();
+		for (String string : strings) {
+			set.add(string);
+		}
+		return set;
+	}
+
+	private static Set<GdlSentence> toSentences(String[] strings)
+			throws GdlFormatException, SymbolFormatException {
+		Set<GdlSentence> sentences = new HashSet<GdlSentence>();
+		for (String string : strings) {
+			sentences.add((GdlSentence) GdlFactory.create(string));
+		}
+		return sentences;
+	}
+
+}
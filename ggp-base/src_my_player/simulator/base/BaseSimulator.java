@@ -2,6 +2,7 @@ package simulator.base;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
 
 import labeler.IStateLabeler;
@@ -9,7 +10,10 @@ import labeler.IStateLabeler;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.observer.Event;
 import org.ggp.base.util.observer.Observer;
+import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 
 import simulator.ISimulator;
 import states.LabeledState;
@@ -21,12 +25,16 @@ public abstract class BaseSimulator implements ISimulator {
 	protected final IStateLabeler labeler;
 	private final Set<GdlSentence> contents;
 	protected final SimulatorReporter reporter;
+	private final Random random;
+	private final int[] jointMove;
 
 	public BaseSimulator(StateMachine machine, IStateLabeler labeler) {
 		this.machine = machine;
 		this.labeler = labeler;
 		this.reporter = new SimulatorReporter();
 		this.contents = new HashSet<GdlSentence>();
+		this.random = new Random();
+		this.jointMove = new int[machine.getRoles().size()];
 	}
 
 	@Override
@@ -39,6 +47,30 @@ public abstract class BaseSimulator implements ISimulator {
 		reporter.notifyObservers(event);
 	}
 
+	/**
+	 * Check if a simulation can stop at a state.
+	 * 
+	 * @return True if the state is terminal or latches already settle its
+	 *         goals.
+	 */
+	protected final boolean isFinished(MachineState state) {
+		return machine.isTerminal(state) || machine.getLatchedGoals(state) != null;
+	}
+
+	/**
+	 * Play a uniformly random joint move, chosen by move index.
+	 * 
+	 * @return The state the move leads to.
+	 */
+	protected final MachineState getRandomNextState(MachineState state)
+			throws MoveDefinitionException, TransitionDefinitionException {
+		for (int r = 0; r < jointMove.length; r++) {
+			int[] legals = machine.getLegalMoveIndices(state, r);
+			jointMove[r] = legals[random.nextInt(legals.length)];
+		}
+		return machine.getNextState(state, jointMove);
+	}
+
 	protected final void addContents(MyState state) {
 		contents.addAll(state.getContents());
 	}
@@ -77,12 +77,11 @@ public class IterativeSimulator extends BaseSimulator implements ISimulator {
 			throws Exception {
 		List<MyState> simulation = new ArrayList<MyState>();
 		MyState state = rootState;
-		while (!machine.isTerminal(state.getState())) {
+		while (!isFinished(state.getState())) {
 			reporter.discoverState();
 			simulation.add(state);
 			addContents(state);
-			List<MachineState> nextStates = machine.getNextStates(state.getState());
-			state = getBestNextState(nextStates, state);
+			state = getBestNextState(state);
 		}
 		reporter.discoverState();
 		simulation.add(state);
@@ -93,14 +92,16 @@ public class IterativeSimulator extends BaseSimulator implements ISimulator {
 		incrementalClassifier.addExample(finalLabeled);
 	}
 
-	private MyState getBestNextState(List<MachineState> nextStates, MyState rootState) throws ClassificationException {
+	private MyState getBestNextState(MyState rootState) throws ClassificationException,
+			MoveDefinitionException, TransitionDefinitionException {
+		List<MachineState> nextStates = machine.getNextStates(rootState.getState());
 		if(nextStates.isEmpty()){
 			return null;
 		}
-		MyState maxState = MyState.createChild(rootState, nextStates.remove(0));
+		MyState maxState = MyState.createChild(rootState, nextStates.get(0));
 		ClassifierValue maxValue = incrementalClassifier.getValue(maxState);
-		while(!nextStates.isEmpty()){
-			MyState currentState = MyState.createChild(rootState, nextStates.remove(0));
+		for(int i = 1; i < nextStates.size(); i++){
+			MyState currentState = MyState.createChild(rootState, nextStates.get(i));
 			ClassifierValue currentValue = incrementalClassifier.getValue(maxState);
 			
 			if(betterValue(currentValue, maxValue, rootState.getRole())){
@@ -131,11 +132,10 @@ public class IterativeSimulator extends BaseSimulator implements ISimulator {
 			GoalDefinitionException {
 		List<MyState> simulation = new ArrayList<MyState>();
 		MyState state = rootState;
-		while (!machine.isTerminal(state.getState())) {
+		while (!isFinished(state.getState())) {
 			simulation.add(state);
 			addContents(state);
-			MachineState nextState = machine.getRandomNextState(state
-					.getState());
+			MachineState nextState = getRandomNextState(state.getState());
 			state = MyState.createChild(state, nextState);
 		}
 		simulation.add(state);
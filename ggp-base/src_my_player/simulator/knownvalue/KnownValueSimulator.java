@@ -9,6 +9,7 @@ import java.util.Map;
 
 import labeler.IStateLabeler;
 
+import org.ggp.base.util.statemachine.JointMoveIterator;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
@@ -37,13 +38,12 @@ public final class KnownValueSimulator extends BaseSimulator {
 			TransitionDefinitionException, GoalDefinitionException {
 		List<MyState> simulation = new ArrayList<MyState>();
 		MyState state = rootState;
-		while (!labeled.containsKey(state)
-				&& !machine.isTerminal(state.getState())) {
+		while (!labeled.containsKey(state.getState())
+				&& !isFinished(state.getState())) {
 			reporter.discoverState();
 			simulation.add(state);
 			addContents(state);
-			MachineState nextState = machine.getRandomNextState(state
-					.getState());
+			MachineState nextState = getRandomNextState(state.getState());
 			state = MyState.createChild(state, nextState);
 		}
 		reporter.discoverState();
@@ -56,7 +56,9 @@ public final class KnownValueSimulator extends BaseSimulator {
 			throws MoveDefinitionException, TransitionDefinitionException,
 			GoalDefinitionException {
 		MyState last = simulation.get(simulation.size() - 1);
-		labeled.put(last.getState(), labeler.label(last));
+		if (!labeled.containsKey(last.getState())) {
+			labeled.put(last.getState(), labeler.label(last));
+		}
 		ListIterator<MyState> iterator = simulation.listIterator(simulation
 				.size() - 1);
 		while (iterator.hasPrevious()) {
@@ -74,11 +76,17 @@ public final class KnownValueSimulator extends BaseSimulator {
 			throws MoveDefinitionException, TransitionDefinitionException,
 			GoalDefinitionException {
 		LabeledState bestLabel = null;
-		for (MachineState child : machine.getNextStates(state.getState())) {
+		// Children are computed one at a time, so the first unlabeled one
+		// stops the check without computing its siblings.
+		JointMoveIterator jointMoves = machine.getLegalJointMoveIterator(state
+				.getState());
+		while (jointMoves.hasNext()) {
+			MachineState child = machine.getNextState(state.getState(),
+					jointMoves.next());
 			LabeledState label = null;
 			if (labeled.containsKey(child)) {
 				label = labeled.get(child);
-			} else if (machine.isTerminal(child)) {
+			} else if (isFinished(child)) {
 				MyState childState = MyState.createChild(state, child);
 				label = labeler.label(childState);
 				labeled.put(child, label);
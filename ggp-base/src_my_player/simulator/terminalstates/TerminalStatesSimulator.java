@@ -32,12 +32,11 @@ public final class TerminalStatesSimulator extends BaseSimulator {
 			TransitionDefinitionException, GoalDefinitionException {
 		List<MyState> simulation = new ArrayList<MyState>();
 		MyState state = rootState;
-		while (!machine.isTerminal(state.getState())) {
+		while (!isFinished(state.getState())) {
 			reporter.discoverState();
 			simulation.add(state);
 			addContents(state);
-			MachineState nextState = machine.getRandomNextState(state
-					.getState());
+			MachineState nextState = getRandomNextState(state.getState());
 			state = MyState.createChild(state, nextState);
 		}
 		reporter.discoverState();